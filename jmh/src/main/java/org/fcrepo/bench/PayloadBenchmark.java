@@ -0,0 +1,115 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.bench;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures how fast the payloads are generated, which bounds the ingest
+ * throughput the tool is able to measure. Every operation generates a payload
+ * of the given size, so with the default size of 1 MiB the operations per
+ * second are the MiB per second a single thread generates.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PayloadBenchmark {
+
+    @Param({"1048576"})
+    private long size;
+
+    @Param({"8192", "65536"})
+    private int bufferSize;
+
+    private byte[] buffer;
+
+    private long seed;
+
+    private OutputStream nullStream;
+
+    @Setup
+    public void setup(final Blackhole blackhole) {
+        buffer = new byte[bufferSize];
+        nullStream = new NullOutputStream(blackhole);
+    }
+
+    /**
+     * Read a payload like the client reads the entity of a request
+     */
+    @Benchmark
+    public long readStream() throws IOException {
+        final BenchToolInputStream in = new BenchToolInputStream(size, BenchTool.RANDOM_SLICE, seed++);
+        long read = 0;
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            read += n;
+        }
+        return read;
+    }
+
+    /**
+     * Write an entity like the connection sends the body of a request
+     */
+    @Benchmark
+    public void writeEntity() throws IOException {
+        new BenchToolEntity(size, BenchTool.RANDOM_SLICE, seed++).writeTo(nullStream);
+    }
+
+    /**
+     * A stream which hands every write to the blackhole, so the writes can not
+     * be eliminated
+     */
+    private static class NullOutputStream extends OutputStream {
+
+        private final Blackhole blackhole;
+
+        private NullOutputStream(final Blackhole blackhole) {
+            super();
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public void write(final int b) {
+            blackhole.consume(b);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) {
+            blackhole.consume(b);
+            blackhole.consume(off);
+            blackhole.consume(len);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.bench;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.fcrepo.bench.BenchTool.Action;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the recording of the result of an action: creating the result,
+ * recording it in the statistics, which every thread performing actions
+ * shares, and writing it to the request log. The log is discarded instead
+ * of written to a file, which would grow without limit.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RecordingBenchmark {
+
+    private BenchToolStatistics stats;
+
+    private RequestLog requestLog;
+
+    @Setup
+    public void setup() throws IOException {
+        stats = new BenchToolStatistics();
+        requestLog = new RequestLog(new DiscardingStream());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        requestLog.close();
+    }
+
+    @Benchmark
+    public void record(final Durations durations) {
+        recordResult(durations);
+    }
+
+    /**
+     * Record the results of several threads in the same statistics
+     */
+    @Benchmark
+    @Threads(4)
+    public void recordContended(final Durations durations) {
+        recordResult(durations);
+    }
+
+    @Benchmark
+    public void writeRequestLog() throws IOException {
+        requestLog.write(System.currentTimeMillis(), Action.READ, RequestLog.OK, 25, 20, 1048576);
+    }
+
+    private void recordResult(final Durations durations) {
+        final long nanos = durations.next();
+        stats.record(Action.READ, nanos / 1000000l, BenchToolResult.fromTransfer(nanos, nanos / 2, 1048576, false));
+    }
+
+    /**
+     * Accepts the buffer of the request log whenever it is flushed, like a
+     * file would
+     */
+    private static class DiscardingStream extends OutputStream {
+
+        @Override
+        public void write(final int b) {
+            /* discarded */
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) {
+            /* discarded */
+        }
+    }
+
+    /**
+     * The durations recorded by a thread, which vary so the histograms record
+     * different buckets
+     */
+    @State(Scope.Thread)
+    public static class Durations {
+
+        private long duration;
+
+        private long next() {
+            return TimeUnit.MILLISECONDS.toNanos(++duration & 1023);
+        }
+    }
+}
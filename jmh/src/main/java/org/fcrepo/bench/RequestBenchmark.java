@@ -0,0 +1,83 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.bench;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.client.methods.HttpUriRequest;
+import org.fcrepo.bench.BenchTool.Action;
+import org.fcrepo.bench.TransactionStateManager.TransactionMode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the creation of the requests of the Fedora 4 client, which builds
+ * the URI of every request by concatenating the Fedora URL, the transaction
+ * and the pid before it is parsed by the request.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestBenchmark {
+
+    private static final String PID = "3cb912c1-62a3-46b2-aead-1e29eea60c96-0-42";
+
+    private Fedora4RestClient client;
+
+    private TransactionState tx;
+
+    @Setup
+    public void setup() throws IOException {
+        client = new Fedora4RestClient(URI.create("http://localhost:8080/fcrepo"), new TransactionStateManager(
+                TransactionMode.COMMIT, 100, 1));
+        tx = new TransactionState(100);
+        tx.setTransactionId("tx:42c1bb47-0c2c-4ec5-8a53-b0e0f5d2ba52");
+    }
+
+    @Benchmark
+    public HttpUriRequest readRequest() throws IOException {
+        return client.createRequest(Action.READ, PID, 1048576, null);
+    }
+
+    @Benchmark
+    public HttpUriRequest readRequestInTx() throws IOException {
+        return client.createRequest(Action.READ, PID, 1048576, tx);
+    }
+
+    @Benchmark
+    public HttpUriRequest ingestRequest() throws IOException {
+        return client.createRequest(Action.INGEST, PID, 1048576, null);
+    }
+
+    @Benchmark
+    public HttpUriRequest updatePropertyRequest() throws IOException {
+        return client.createRequest(Action.UPDATE_PROPERTY, PID, 0, null);
+    }
+}
@@ -0,0 +1,71 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.fcrepo.bench.TransactionStateManager.TransactionMode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the assignment of actions to transactions, which the runner
+ * performs for every action it schedules in a transactional run. Full
+ * transactions are replaced by new ones, so the cost of creating the state of
+ * a transaction is included.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransactionBenchmark {
+
+    @Param({"10", "1000"})
+    private int actionsPerTx;
+
+    @Param({"1", "16"})
+    private int parallelTx;
+
+    private TransactionStateManager txManager;
+
+    @Setup
+    public void setup() throws IOException {
+        txManager = new TransactionStateManager(TransactionMode.COMMIT, actionsPerTx, parallelTx);
+    }
+
+    /**
+     * Assign an action to a transaction like the runner does
+     */
+    @Benchmark
+    public TransactionState getTransaction() throws IOException {
+        final TransactionState tx = txManager.getTransaction();
+        tx.assignAction();
+        return tx;
+    }
+}
@@ -0,0 +1,231 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.fcrepo.bench.BenchTool.Action;
+
+/**
+ * Latency histograms and counters of a single {@link Action}. Recording is
+ * wait-free so that every worker thread can update the statistics directly;
+ * the histograms have a fixed size and clamp values above one hour.
+ * <p>
+ * Two latencies are kept per action: the latency as seen by a client, which
+ * in open loop runs is measured from the intended start time of an action and
+ * therefore includes any queueing delay, and the service time, which is the
+ * time the request spent on the wire. Actions which read a response body
+ * additionally record the time to first byte.
+ */
+public class ActionStatistics {
+
+    static final long HIGHEST_TRACKABLE_VALUE = TimeUnit.HOURS.toMillis(1);
+
+    static final int SIGNIFICANT_DIGITS = 3;
+
+    private final Action action;
+
+    private final Recorder recorder;
+
+    private final Histogram total;
+
+    /* the latencies drained from the recorder since the last interval has been taken */
+    private final Histogram interval;
+
+    private final Recorder serviceRecorder;
+
+    private final Histogram serviceTotal;
+
+    private final Recorder firstByteRecorder;
+
+    private final Histogram firstByteTotal;
+
+    private final AtomicLong count = new AtomicLong();
+
+    private final AtomicLong duration = new AtomicLong();
+
+    private final AtomicLong bytes = new AtomicLong();
+
+    private final AtomicLong corrupt = new AtomicLong();
+
+    private final AtomicLong errors = new AtomicLong();
+
+    public ActionStatistics(final Action action) {
+        super();
+        this.action = action;
+        this.recorder = new Recorder(HIGHEST_TRACKABLE_VALUE, SIGNIFICANT_DIGITS);
+        this.total = new Histogram(HIGHEST_TRACKABLE_VALUE, SIGNIFICANT_DIGITS);
+        this.interval = new Histogram(HIGHEST_TRACKABLE_VALUE, SIGNIFICANT_DIGITS);
+        this.serviceRecorder = new Recorder(HIGHEST_TRACKABLE_VALUE, SIGNIFICANT_DIGITS);
+        this.serviceTotal = new Histogram(HIGHEST_TRACKABLE_VALUE, SIGNIFICANT_DIGITS);
+        this.firstByteRecorder = new Recorder(HIGHEST_TRACKABLE_VALUE, SIGNIFICANT_DIGITS);
+        this.firstByteTotal = new Histogram(HIGHEST_TRACKABLE_VALUE, SIGNIFICANT_DIGITS);
+    }
+
+    /**
+     * Record the outcome of a single action. Safe to call from any number of
+     * threads without locking.
+     *
+     * @param latency the latency of the action in milliseconds
+     * @param serviceTime the service time of the action in milliseconds
+     * @param timeToFirstByte the time to first byte in milliseconds, or a
+     *        negative value if the action did not read a response body
+     * @param size the number of bytes transferred by the action
+     */
+    public void record(final long latency, final long serviceTime, final long timeToFirstByte, final long size) {
+        recorder.recordValue(clamp(latency));
+        serviceRecorder.recordValue(clamp(serviceTime));
+        if (timeToFirstByte >= 0) {
+            firstByteRecorder.recordValue(clamp(timeToFirstByte));
+        }
+        count.incrementAndGet();
+        duration.addAndGet(serviceTime);
+        if (size > 0) {
+            bytes.addAndGet(size);
+        }
+    }
+
+    /**
+     * Record a response whose content did not match the expected payload
+     */
+    public void recordCorruption() {
+        corrupt.incrementAndGet();
+    }
+
+    /**
+     * Record an action which failed
+     */
+    public void recordError() {
+        errors.incrementAndGet();
+    }
+
+    /**
+     * Merge statistics which have been recorded elsewhere, e.g. by a remote
+     * agent, into these statistics
+     *
+     * @param latencies the latencies to add
+     * @param serviceTimes the service times to add
+     * @param firstBytes the times to first byte to add
+     * @param serviceTime the sum of the service times in milliseconds
+     * @param size the number of bytes transferred
+     * @param corruptions the number of corrupted responses
+     * @param failures the number of failed actions
+     */
+    public synchronized void add(final Histogram latencies, final Histogram serviceTimes,
+            final Histogram firstBytes, final long serviceTime, final long size, final long corruptions,
+            final long failures) {
+        total.add(latencies);
+        serviceTotal.add(serviceTimes);
+        firstByteTotal.add(firstBytes);
+        count.addAndGet(latencies.getTotalCount());
+        duration.addAndGet(serviceTime);
+        bytes.addAndGet(size);
+        corrupt.addAndGet(corruptions);
+        errors.addAndGet(failures);
+    }
+
+    /**
+     * @return a snapshot of all latencies recorded so far
+     */
+    public synchronized Histogram getHistogram() {
+        drain();
+        return total.copy();
+    }
+
+    /**
+     * @return the latencies recorded since the last call of this method
+     */
+    public synchronized Histogram getIntervalHistogram() {
+        drain();
+        final Histogram copy = interval.copy();
+        interval.reset();
+        return copy;
+    }
+
+    private void drain() {
+        final Histogram recorded = recorder.getIntervalHistogram();
+        total.add(recorded);
+        interval.add(recorded);
+    }
+
+    /**
+     * @return a snapshot of all service times recorded so far
+     */
+    public synchronized Histogram getServiceTimeHistogram() {
+        serviceTotal.add(serviceRecorder.getIntervalHistogram());
+        return serviceTotal.copy();
+    }
+
+    /**
+     * @return a snapshot of all times to first byte recorded so far
+     */
+    public synchronized Histogram getTimeToFirstByteHistogram() {
+        firstByteTotal.add(firstByteRecorder.getIntervalHistogram());
+        return firstByteTotal.copy();
+    }
+
+    /**
+     * @return the action
+     */
+    public Action getAction() {
+        return action;
+    }
+
+    /**
+     * @return the number of recorded actions, without taking a snapshot of
+     *         the latencies
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return the sum of all recorded service times in milliseconds
+     */
+    public long getDuration() {
+        return duration.get();
+    }
+
+    /**
+     * @return the number of bytes transferred
+     */
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    /**
+     * @return the number of responses which did not match the expected
+     *         payload
+     */
+    public long getCorruptions() {
+        return corrupt.get();
+    }
+
+    /**
+     * @return the number of failed actions
+     */
+    public long getErrors() {
+        return errors.get();
+    }
+
+    private static long clamp(final long value) {
+        return Math.min(Math.max(value, 0), HIGHEST_TRACKABLE_VALUE);
+    }
+}
@@ -4,6 +4,7 @@ package org.fcrepo.bench;
 import java.io.IOException;
 import java.net.URI;
 import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
 
 import org.fcrepo.bench.BenchTool.Action;
 import org.slf4j.Logger;
@@ -11,6 +12,9 @@ import org.slf4j.LoggerFactory;
 
 public class ActionWorker implements Callable<BenchToolResult> {
 
+    /* marks a worker without an intended start time, i.e. a closed loop action */
+    public static final long UNSCHEDULED = Long.MIN_VALUE;
+
     private static final Logger LOGGER = LoggerFactory.getLogger(ActionWorker.class);
 
     private final FedoraRestClient fedora;
@@ -23,9 +27,29 @@ public class ActionWorker implements Callable<BenchToolResult> {
 
     private final String pid;
 
+    private final BenchToolStatistics stats;
+
+    private final long intendedStart;
+
     public ActionWorker(final Action action, final URI fedoraUri, final String pid, final long binarySize,
-            final FedoraRestClient restClient, final TransactionState tx) {
+            final FedoraRestClient restClient, final TransactionState tx, final BenchToolStatistics stats) {
+        this(action, fedoraUri, pid, binarySize, restClient, tx, stats, UNSCHEDULED);
+    }
+
+    /**
+     * Create a worker for an open loop run. The latency of the action is
+     * measured from the intended start time, so that the time spent waiting
+     * for a free thread is accounted for.
+     *
+     * @param intendedStart the time the action should have been started at in
+     *        {@link System#nanoTime()} units
+     */
+    public ActionWorker(final Action action, final URI fedoraUri, final String pid, final long binarySize,
+            final FedoraRestClient restClient, final TransactionState tx, final BenchToolStatistics stats,
+            final long intendedStart) {
         super();
+        this.stats = stats;
+        this.intendedStart = intendedStart;
         this.binarySize = binarySize;
         this.fedora = restClient;
         this.action = action;
@@ -41,46 +65,97 @@ public class ActionWorker implements Callable<BenchToolResult> {
     public BenchToolResult call() throws Exception {
         LOGGER.debug("Executing action {} as part of tx {}", this.action, this.tx == null ? "none" : this.tx
                 .getTransactionId());
+        if (stats != null) {
+            stats.actionStarted();
+        }
         try {
-            /* check the action and run the appropriate test */
-            switch (this.action) {
-            case INGEST:
-                return doIngest();
-            case UPDATE:
-                return doUpdate();
-            case READ:
-                return doRead();
-            case DELETE:
-                return doDelete();
-            case CREATE_TX:
-                return doCreateTx();
-            case COMMIT_TX:
-                return doCommitTx();
-            case ROLLBACK_TX:
-                return doRollbackTx();
-            case SPARQL_INSERT:
-                return doSparqlInsert();
-            case SPARQL_SELECT:
-                return doSparqlSelect();
-            case CREATE_PROPERTY:
-                return doCreateProperty();
-            case READ_PROPERTY:
-                return doReadProperty();
-            case UPDATE_PROPERTY:
-                return doUpdateProperty();
-            case DELETE_PROPERTY:
-                return doDeleteProperty();
-            default:
-                throw new IllegalArgumentException("The Action " + action.name() +
-                        " is not available in the worker thread");
+            final BenchToolResult result = execute();
+            record(stats, action, intendedStart, result);
+            if (tx != null && !isTransactionAction()) {
+                fedora.getTxManager().getProfiler().recordAction(result.getDuration());
+            }
+            return result;
+        } catch (final IOException | RuntimeException e) {
+            if (stats != null) {
+                stats.recordError(action);
             }
+            throw e;
         } finally {
+            if (stats != null) {
+                stats.actionFinished();
+            }
             if (tx != null) {
                 tx.actionCompleted(this.action);
             }
         }
     }
 
+    /**
+     * Record the result of an action. In open loop runs the latency is
+     * measured from the intended start time of the action.
+     *
+     * @param stats the statistics to record the result in, may be null
+     * @param action the action which has been performed
+     * @param intendedStart the intended start time or {@link #UNSCHEDULED}
+     * @param result the result of the action
+     */
+    static void record(final BenchToolStatistics stats, final Action action, final long intendedStart,
+            final BenchToolResult result) {
+        if (stats == null) {
+            return;
+        }
+        stats.record(action, getLatency(intendedStart, result), result);
+    }
+
+    /**
+     * @param intendedStart the intended start time or {@link #UNSCHEDULED}
+     * @param result the result of the action
+     * @return the latency of the action in milliseconds, measured from the
+     *         intended start time in open loop runs and equal to the
+     *         duration otherwise
+     */
+    static long getLatency(final long intendedStart, final BenchToolResult result) {
+        if (intendedStart == UNSCHEDULED) {
+            return result.getDuration();
+        }
+        return TimeUnit.NANOSECONDS.toMillis(result.getCompletedAt() - intendedStart);
+    }
+
+    private BenchToolResult execute() throws IOException {
+        /* check the action and run the appropriate test */
+        switch (this.action) {
+        case INGEST:
+            return doIngest();
+        case UPDATE:
+            return doUpdate();
+        case READ:
+            return doRead();
+        case DELETE:
+            return doDelete();
+        case CREATE_TX:
+            return doCreateTx();
+        case COMMIT_TX:
+            return doCommitTx();
+        case ROLLBACK_TX:
+            return doRollbackTx();
+        case SPARQL_INSERT:
+            return doSparqlInsert();
+        case SPARQL_SELECT:
+            return doSparqlSelect();
+        case CREATE_PROPERTY:
+            return doCreateProperty();
+        case READ_PROPERTY:
+            return doReadProperty();
+        case UPDATE_PROPERTY:
+            return doUpdateProperty();
+        case DELETE_PROPERTY:
+            return doDeleteProperty();
+        default:
+            throw new IllegalArgumentException("The Action " + action.name() +
+                    " is not available in the worker thread");
+        }
+    }
+
     private BenchToolResult doSparqlSelect() throws IOException {
         final long duration = fedora.sparqlSelect(pid, tx);
         return new BenchToolResult(-1f, duration, -1);
@@ -93,13 +168,11 @@ public class ActionWorker implements Callable<BenchToolResult> {
 
     private BenchToolResult doDelete() throws IOException {
         final long duration = fedora.deleteDatastream(pid, tx);
-        return new BenchToolResult(-1f, duration, binarySize);
+        return new BenchToolResult(-1f, duration, -1);
     }
 
     private BenchToolResult doRead() throws IOException {
-        final long duration = fedora.retrieveDatastream(pid, tx);
-        final float tp = binarySize * 1000f / duration;
-        return new BenchToolResult(tp, duration, binarySize);
+        return fedora.retrieveDatastream(pid, binarySize, tx);
     }
 
     private BenchToolResult doUpdate() throws IOException {
@@ -115,44 +188,62 @@ public class ActionWorker implements Callable<BenchToolResult> {
     }
 
     private BenchToolResult doCreateTx() throws IOException {
-        final long duration = fedora.createTransaction(tx);
+        final long duration;
+        try {
+            duration = fedora.createTransaction(tx);
+        } catch (final IOException | RuntimeException e) {
+            tx.creationFailed();
+            throw e;
+        }
         fedora.getTxManager().addToCreateTime(duration);
+        fedora.getTxManager().getProfiler().recordCreate(duration);
         return new BenchToolResult(0, duration, 0);
     }
 
     private BenchToolResult doCommitTx() throws IOException {
+        final long openTime = getOpenTime();
         final long duration = fedora.commitTransaction(tx);
         fedora.getTxManager().addToCommitTime(duration);
+        fedora.getTxManager().getProfiler().recordFinish(openTime, duration, tx.getActionsAssigned());
         return new BenchToolResult(0, duration, 0);
     }
 
     private BenchToolResult doRollbackTx() throws IOException {
+        final long openTime = getOpenTime();
         final long duration = fedora.rollbackTransaction(tx);
         fedora.getTxManager().addToCommitTime(duration);
+        fedora.getTxManager().getProfiler().recordFinish(openTime, duration, tx.getActionsAssigned());
         return new BenchToolResult(0, duration, 0);
     }
 
+    private boolean isTransactionAction() {
+        return action == Action.CREATE_TX || action == Action.COMMIT_TX || action == Action.ROLLBACK_TX;
+    }
+
+    /**
+     * @return the time since the transaction has been created in milliseconds
+     */
+    private long getOpenTime() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - tx.getCreatedAt());
+    }
+
     private BenchToolResult doCreateProperty() throws IOException {
         final long duration = fedora.sparqlInsert(pid, tx);
-        final float tp = binarySize * 1000f / duration;
-        return new BenchToolResult(tp, duration, binarySize);
+        return new BenchToolResult(-1f, duration, -1);
     }
 
     private BenchToolResult doReadProperty() throws IOException {
         final long duration = fedora.sparqlSelect(pid, tx);
-        final float tp = binarySize * 1000f / duration;
-        return new BenchToolResult(tp, duration, binarySize);
+        return new BenchToolResult(-1f, duration, -1);
     }
 
     private BenchToolResult doUpdateProperty() throws IOException {
         final long duration = fedora.sparqlUpdate(pid, tx);
-        final float tp = binarySize * 1000f / duration;
-        return new BenchToolResult(tp, duration, binarySize);
+        return new BenchToolResult(-1f, duration, -1);
     }
 
     private BenchToolResult doDeleteProperty() throws IOException {
         final long duration = fedora.sparqlDelete(pid, tx);
-        final float tp = binarySize * 1000f / duration;
-        return new BenchToolResult(tp, duration, binarySize);
+        return new BenchToolResult(-1f, duration, -1);
     }
 }
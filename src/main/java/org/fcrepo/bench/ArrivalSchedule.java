@@ -0,0 +1,72 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.bench;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Constant arrival rate schedule for open loop runs. The n-th action is
+ * intended to start at exactly n intervals after the first one, regardless of
+ * how long earlier actions took. If the scheduling thread falls behind the
+ * schedule it does not try to catch up silently: the intended start time is
+ * returned unchanged, so the delay shows up in the measured latency.
+ */
+public class ArrivalSchedule {
+
+    private final long intervalNanos;
+
+    private long start;
+
+    private long scheduled;
+
+    /**
+     * @param rate the number of actions to start per second
+     */
+    public ArrivalSchedule(final double rate) {
+        super();
+        if (rate <= 0) {
+            throw new IllegalArgumentException("The arrival rate has to be a positive number");
+        }
+        this.intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+    }
+
+    /**
+     * Wait until the next action is due
+     *
+     * @return the intended start time of the next action in
+     *         {@link System#nanoTime()} units
+     * @throws InterruptedException
+     */
+    public long awaitNext() throws InterruptedException {
+        if (scheduled == 0) {
+            start = System.nanoTime();
+        }
+        final long intended = start + scheduled++ * intervalNanos;
+        final long wait = intended - System.nanoTime();
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+        return intended;
+    }
+
+    /**
+     * @return the number of actions scheduled so far
+     */
+    public long getScheduled() {
+        return scheduled;
+    }
+}
@@ -0,0 +1,230 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.bench;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.client.methods.HttpAsyncMethods;
+import org.apache.http.nio.protocol.AbstractAsyncResponseConsumer;
+import org.apache.http.protocol.HttpContext;
+import org.fcrepo.bench.BenchTool.Action;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Executes actions on the non-blocking {@link BenchTool#asyncHttpClient}
+ * instead of a thread per request, so that thousands of requests can be in
+ * flight while only a handful of I/O threads are running. The results are
+ * recorded in the same way as the ones of an {@link ActionWorker}.
+ * Transactions are not supported by this engine.
+ */
+public class AsyncActionEngine {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AsyncActionEngine.class);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /* one buffer per I/O thread, response bodies are discarded */
+    private static final ThreadLocal<ByteBuffer> BUFFER = new ThreadLocal<ByteBuffer>() {
+
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocate(BUFFER_SIZE);
+        }
+    };
+
+    private final FedoraRestClient fedora;
+
+    public AsyncActionEngine(final FedoraRestClient fedora) {
+        super();
+        this.fedora = fedora;
+    }
+
+    /**
+     * Start an action without waiting for its completion
+     *
+     * @param action the action to perform
+     * @param pid the pid of the object
+     * @param size the size of the binary
+     * @param stats the statistics to record the result in, may be null
+     * @param intendedStart the intended start time of the action or
+     *        {@link ActionWorker#UNSCHEDULED}
+     * @param permits the permits bounding the number of actions submitted
+     *        but not yet completed, may be null. A permit is acquired before
+     *        the request is sent and released once it completed.
+     * @param inFlight the permits bounding the number of requests handed to
+     *        the client, may be null. Open loop runs submit more actions than
+     *        the client has connections, which would otherwise wait for a
+     *        connection while being timed.
+     * @return the future result of the action
+     */
+    public Future<BenchToolResult> submit(final Action action, final String pid, final long size,
+            final BenchToolStatistics stats, final long intendedStart, final Semaphore permits,
+            final Semaphore inFlight) throws IOException, InterruptedException {
+        final HttpUriRequest request = fedora.createRequest(action, pid, size, null);
+        final PayloadVerifier verifier = action == Action.READ ? fedora.createVerifier(pid, size) : null;
+        final ResponseConsumer consumer =
+                new ResponseConsumer(action, size, fedora.getExpectedStatus(action), request.getURI(), verifier);
+        if (permits != null) {
+            permits.acquire();
+        }
+        if (inFlight != null) {
+            inFlight.acquire();
+        }
+        LOG.debug("Executing action {} asynchronously", action);
+        if (stats != null) {
+            stats.actionStarted();
+        }
+        /* the request is timed from handing it to the client, not including the wait for a permit */
+        consumer.start();
+        return BenchTool.asyncHttpClient.execute(HttpAsyncMethods.create(request), consumer,
+                new FutureCallback<BenchToolResult>() {
+
+                    @Override
+                    public void completed(final BenchToolResult result) {
+                        ActionWorker.record(stats, action, intendedStart, result);
+                        release();
+                    }
+
+                    @Override
+                    public void failed(final Exception ex) {
+                        LOG.debug("Action " + action + " on " + pid + " failed", ex);
+                        if (stats != null) {
+                            stats.recordError(action);
+                        }
+                        release();
+                    }
+
+                    @Override
+                    public void cancelled() {
+                        release();
+                    }
+
+                    private void release() {
+                        if (stats != null) {
+                            stats.actionFinished();
+                        }
+                        if (inFlight != null) {
+                            inFlight.release();
+                        }
+                        if (permits != null) {
+                            permits.release();
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Consumes a response on an I/O thread, discarding the body and timing
+     * the first and the last byte
+     */
+    private static class ResponseConsumer extends AbstractAsyncResponseConsumer<BenchToolResult> {
+
+        private final Action action;
+
+        private final long size;
+
+        private final int expectedStatus;
+
+        private final URI uri;
+
+        private final PayloadVerifier verifier;
+
+        private long start;
+
+        private long firstByte;
+
+        private int status;
+
+        private long bytesRead;
+
+        public ResponseConsumer(final Action action, final long size, final int expectedStatus, final URI uri,
+                final PayloadVerifier verifier) {
+            super();
+            this.action = action;
+            this.size = size;
+            this.expectedStatus = expectedStatus;
+            this.uri = uri;
+            this.verifier = verifier;
+        }
+
+        /**
+         * Start the clock, right before the request is executed
+         */
+        void start() {
+            start = System.nanoTime();
+        }
+
+        @Override
+        protected void onResponseReceived(final HttpResponse response) {
+            firstByte = System.nanoTime();
+            status = response.getStatusLine().getStatusCode();
+        }
+
+        @Override
+        protected void onEntityEnclosed(final HttpEntity entity, final ContentType contentType) {
+        }
+
+        @Override
+        protected void onContentReceived(final ContentDecoder decoder, final IOControl ioctrl) throws IOException {
+            final ByteBuffer buffer = BUFFER.get();
+            buffer.clear();
+            int read;
+            while ((read = decoder.read(buffer)) > 0) {
+                if (verifier != null) {
+                    verifier.update(buffer.array(), 0, read);
+                }
+                bytesRead += read;
+                buffer.clear();
+            }
+        }
+
+        @Override
+        protected BenchToolResult buildResult(final HttpContext context) throws IOException {
+            final long end = System.nanoTime();
+            if (status != expectedStatus) {
+                throw new IOException("Unable to perform " + action + " at " + uri + "\nFedora returned " + status);
+            }
+            if (action == Action.READ) {
+                return BenchToolResult.fromTransfer(end - start, firstByte - start, bytesRead, verifier != null &&
+                        !verifier.isValid());
+            }
+            final long duration = TimeUnit.NANOSECONDS.toMillis(end - start);
+            /* only ingests and updates transfer a binary */
+            if (action != Action.INGEST && action != Action.UPDATE) {
+                return new BenchToolResult(-1f, duration, -1);
+            }
+            return new BenchToolResult(size * 1000f / duration, duration, size);
+        }
+
+        @Override
+        protected void releaseResources() {
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.bench;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import org.apache.commons.cli.ParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Generates load on behalf of a {@link BenchCoordinator}. An agent waits for a
+ * coordinator to connect, receives the command line and the range of pids to
+ * use, prepares its objects and then waits until the coordinator starts all
+ * agents at once. After the measurement the agent sends its statistics back
+ * and purges its objects once every agent is done measuring.
+ * <p>
+ * Runs are served one after the other, so an agent can be reused for any
+ * number of runs.
+ */
+public class BenchAgent {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BenchAgent.class);
+
+    /* the messages exchanged between coordinator and agent, each one is a single byte followed by its payload */
+    static final byte CONFIGURE = 1;
+
+    static final byte READY = 2;
+
+    static final byte START = 3;
+
+    static final byte RESULTS = 4;
+
+    static final byte FINISH = 5;
+
+    static final byte DONE = 6;
+
+    static final byte FAILED = 7;
+
+    private final int port;
+
+    public BenchAgent(final int port) {
+        super();
+        this.port = port;
+    }
+
+    /**
+     * Serve runs until the process is terminated
+     *
+     * @throws IOException if the port can not be opened
+     */
+    public void serve() throws IOException {
+        try (ServerSocket server = new ServerSocket(port)) {
+            while (true) {
+                LOG.info("Waiting for a coordinator on port {}", server.getLocalPort());
+                try (Socket socket = server.accept()) {
+                    LOG.info("Accepted a run from {}", socket.getRemoteSocketAddress());
+                    serve(socket);
+                } catch (final IOException e) {
+                    LOG.error("The run has been aborted", e);
+                }
+            }
+        }
+    }
+
+    private void serve(final Socket socket) throws IOException {
+        socket.setTcpNoDelay(true);
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        final String peer = String.valueOf(socket.getRemoteSocketAddress());
+
+        expect(in, CONFIGURE, peer);
+        final String[] args = new String[in.readInt()];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = in.readUTF();
+        }
+        final String pidPrefix = in.readUTF();
+        final int firstPid = in.readInt();
+
+        try {
+            final FCRepoBenchRunner runner = BenchTool.createRunner(args);
+            runner.setPidRange(pidPrefix, firstPid);
+            runner.setPhaseListener(new FCRepoBenchRunner.PhaseListener() {
+
+                @Override
+                public void beforeMeasurement() throws IOException {
+                    out.writeByte(READY);
+                    out.flush();
+                    LOG.info("Objects prepared, waiting for the coordinator to start the run");
+                    expect(in, START, peer);
+                }
+
+                @Override
+                public void afterMeasurement() throws IOException {
+                    out.writeByte(RESULTS);
+                    out.writeLong(runner.getActionsMeasured());
+                    out.writeLong(runner.getTestTime());
+                    runner.getStatistics().writeTo(out);
+                    out.flush();
+                    LOG.info("Results sent, waiting for the other agents to finish");
+                    expect(in, FINISH, peer);
+                }
+            });
+            runner.runBenchmark();
+            out.writeByte(DONE);
+            out.flush();
+        } catch (final ParseException | IOException | RuntimeException e) {
+            try {
+                out.writeByte(FAILED);
+                out.writeUTF(String.valueOf(e.getMessage()));
+                out.flush();
+            } catch (final IOException ignored) {
+                /* the coordinator is gone already */
+            }
+            throw new IOException("Unable to perform the run", e);
+        } finally {
+            BenchTool.closeClients();
+        }
+    }
+
+    /**
+     * Read the next message and make sure it is the expected one
+     *
+     * @throws IOException if the peer failed or sent a different message
+     */
+    static void expect(final DataInputStream in, final byte message, final String peer) throws IOException {
+        final byte received = in.readByte();
+        if (received == FAILED) {
+            throw new IOException("The run failed on " + peer + ": " + in.readUTF());
+        }
+        if (received != message) {
+            throw new IOException("Expected message " + message + " from " + peer + " but received " + received);
+        }
+    }
+}
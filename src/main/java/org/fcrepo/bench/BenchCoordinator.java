@@ -0,0 +1,213 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.bench;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Distributes a run to a number of {@link BenchAgent}s and merges their
+ * results. Every agent works on its own range of pids; the number of actions
+ * and the arrival rate are split evenly between the agents, while all other
+ * settings, e.g. the number of threads, apply to every single agent.
+ * <p>
+ * The agents prepare their objects independently and are started together
+ * once all of them are ready. Likewise no agent purges its objects before
+ * every agent has finished measuring.
+ */
+public class BenchCoordinator {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BenchCoordinator.class);
+
+    private static final int CONNECT_TIMEOUT = (int) TimeUnit.SECONDS.toMillis(10);
+
+    private final List<InetSocketAddress> agents;
+
+    private final List<String> args;
+
+    private long actionsMeasured;
+
+    private long testTime;
+
+    /**
+     * @param agents the addresses of the agents
+     * @param args the command line passed to every agent, without the number
+     *        of actions and the rate
+     */
+    public BenchCoordinator(final List<InetSocketAddress> agents, final List<String> args) {
+        super();
+        if (agents.isEmpty()) {
+            throw new IllegalArgumentException("At least one agent is required");
+        }
+        this.agents = agents;
+        this.args = args;
+    }
+
+    /**
+     * Perform a run on all agents and merge their statistics
+     *
+     * @param numBinaries the total number of actions to split between the
+     *        agents
+     * @param rate the total arrival rate to split between the agents, values
+     *        <= 0 run the agents closed loop
+     * @param stats the statistics to merge the agents' results into
+     * @throws IOException if an agent can not be reached or fails
+     */
+    public void run(final int numBinaries, final double rate, final BenchToolStatistics stats) throws IOException {
+        if (numBinaries < agents.size()) {
+            throw new IllegalArgumentException("At least one action per agent is required");
+        }
+        /* all agents share the prefix, so every pid is unique across the whole run */
+        final String pidPrefix = UUID.randomUUID().toString();
+        final List<Connection> connections = new ArrayList<>();
+        try {
+            int firstPid = 0;
+            for (int i = 0; i < agents.size(); i++) {
+                final int share = numBinaries / agents.size() + (i < numBinaries % agents.size() ? 1 : 0);
+                final List<String> agentArgs = new ArrayList<>(args);
+                agentArgs.add("-n");
+                agentArgs.add(String.valueOf(share));
+                if (rate > 0) {
+                    agentArgs.add("-r");
+                    agentArgs.add(String.valueOf(rate / agents.size()));
+                }
+                final Connection connection = new Connection(agents.get(i));
+                connections.add(connection);
+                connection.configure(agentArgs, pidPrefix, firstPid);
+                LOG.info("Agent {} performs {} action(s) starting at pid {}", new Object[] {connection.peer, share,
+                        firstPid});
+                firstPid += share;
+            }
+
+            LOG.info("Waiting for {} agent(s) to prepare their objects", connections.size());
+            for (final Connection connection : connections) {
+                connection.expect(BenchAgent.READY);
+            }
+            LOG.info("All agents are ready, starting the run");
+            for (final Connection connection : connections) {
+                connection.send(BenchAgent.START);
+            }
+
+            for (final Connection connection : connections) {
+                connection.expect(BenchAgent.RESULTS);
+                final long agentActions = connection.in.readLong();
+                final long agentTime = connection.in.readLong();
+                stats.readFrom(connection.in);
+                LOG.info("Agent {} completed {} action(s) in {} ms", new Object[] {connection.peer, agentActions,
+                        agentTime});
+                actionsMeasured += agentActions;
+                testTime = Math.max(testTime, agentTime);
+            }
+
+            for (final Connection connection : connections) {
+                connection.send(BenchAgent.FINISH);
+            }
+            for (final Connection connection : connections) {
+                connection.expect(BenchAgent.DONE);
+            }
+        } finally {
+            for (final Connection connection : connections) {
+                connection.close();
+            }
+        }
+    }
+
+    /**
+     * @return the number of agents
+     */
+    public int getNumAgents() {
+        return agents.size();
+    }
+
+    /**
+     * @return the number of actions measured by all agents
+     */
+    public long getActionsMeasured() {
+        return actionsMeasured;
+    }
+
+    /**
+     * @return the longest measurement phase of all agents in milliseconds
+     */
+    public long getTestTime() {
+        return testTime;
+    }
+
+    private static class Connection implements Closeable {
+
+        private final Socket socket;
+
+        private final String peer;
+
+        private final DataInputStream in;
+
+        private final DataOutputStream out;
+
+        private Connection(final InetSocketAddress address) throws IOException {
+            this.socket = new Socket();
+            this.peer = address.getHostString() + ":" + address.getPort();
+            try {
+                socket.connect(address, CONNECT_TIMEOUT);
+                socket.setTcpNoDelay(true);
+                this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            } catch (final IOException e) {
+                socket.close();
+                throw new IOException("Unable to connect to agent " + peer, e);
+            }
+        }
+
+        private void configure(final List<String> args, final String pidPrefix, final int firstPid)
+                throws IOException {
+            out.writeByte(BenchAgent.CONFIGURE);
+            out.writeInt(args.size());
+            for (final String arg : args) {
+                out.writeUTF(arg);
+            }
+            out.writeUTF(pidPrefix);
+            out.writeInt(firstPid);
+            out.flush();
+        }
+
+        private void send(final byte message) throws IOException {
+            out.writeByte(message);
+            out.flush();
+        }
+
+        private void expect(final byte message) throws IOException {
+            BenchAgent.expect(in, message, peer);
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+}
@@ -5,7 +5,17 @@
 package org.fcrepo.bench;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -13,6 +23,7 @@ import org.apache.commons.cli.BasicParser;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
 import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
 import org.apache.commons.cli.OptionBuilder;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
@@ -26,11 +37,18 @@ import org.apache.http.impl.client.DefaultRedirectStrategy;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.impl.client.HttpClients;
 import org.apache.http.impl.client.StandardHttpRequestRetryHandler;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.pool.ConnPoolControl;
 import org.apache.http.util.EntityUtils;
 import org.fcrepo.bench.TransactionStateManager.TransactionMode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.uncommons.maths.random.XORShiftRNG;
 
 /**
  * @author frank asseg
@@ -39,17 +57,27 @@ public class BenchTool {
 
     private static final Logger LOG = LoggerFactory.getLogger(BenchTool.class);
 
-    public static final XORShiftRNG RNG = new XORShiftRNG();
+    /* the slice is the same in every run, so payloads can be verified across runs */
+    private static final long SLICE_SEED = 0x4fc5e9d2b7a3L;
 
     public static final byte[] RANDOM_SLICE = new byte[65535];
 
     static {
-        RNG.nextBytes(RANDOM_SLICE);
+        new Random(SLICE_SEED).nextBytes(RANDOM_SLICE);
     }
 
     /* should be used by all the threads */
     static CloseableHttpClient httpClient;
 
+    /* only available when running the async engine */
+    static CloseableHttpAsyncClient asyncHttpClient;
+
+    /* the connection pool of the client used for the actions, exposed as metrics */
+    static ConnPoolControl<?> connectionPool;
+
+    /* only available when the metrics endpoint has been enabled */
+    private static MetricsExporter metrics;
+
     enum Action {
         INGEST, READ, UPDATE, DELETE, LIST, CREATE_TX, COMMIT_TX, ROLLBACK_TX, SPARQL_INSERT, SPARQL_SELECT,
         CREATE_PROPERTY, READ_PROPERTY, UPDATE_PROPERTY, DELETE_PROPERTY;
@@ -59,16 +87,233 @@ public class BenchTool {
         FCREPO3, FCREPO4;
     }
 
+    enum Engine {
+        THREADS, ASYNC, VIRTUAL;
+    }
+
+    /* options which are not passed on to the agents by a coordinator */
+    private static final Set<String> COORDINATOR_OPTIONS = new HashSet<>(Arrays.asList("co", "ag", "n", "r", "h",
+            "mp"));
+
+    /* options which can be swept, they are set for every run of a sweep */
+    private static final Set<String> SWEEP_OPTIONS = new HashSet<>(Arrays.asList("t", "s", "ta"));
+
+    /* options which are set for every run of a throughput search */
+    private static final Set<String> SEARCH_OPTIONS = new HashSet<>(Arrays.asList("lo", "r"));
+
     public static void main(final String[] args) {
         /* setup the command line options */
         final Options ops = createOptions();
 
+        final CommandLineParser parser = new BasicParser();
+        final CommandLine cli;
+        try {
+            cli = parser.parse(ops, args);
+        } catch (final ParseException e) {
+            LOG.error("Unable to parse command line", e);
+            return;
+        }
+        if (cli.hasOption("h")) {
+            printUsage(ops);
+            return;
+        }
+        if (cli.hasOption("cl")) {
+            convertRequestLog(cli.getOptionValue("cl"), cli.getOptionValue("cf", "csv"));
+            return;
+        }
+        if (cli.hasOption("cp")) {
+            System.exit(compare(cli));
+        }
+        /* the stand-in is started first, it configures the JDK's HTTP server for all servers */
+        FedoraStandIn standIn = null;
+        if (cli.hasOption("si")) {
+            standIn =
+                    new FedoraStandIn(Integer.parseInt(cli.getOptionValue("si")), Long.parseLong(cli
+                            .getOptionValue("sl", "0")), getSizeFromArgument(cli.getOptionValue("sb", "0")), cli
+                            .hasOption("ss"));
+            try {
+                standIn.start();
+            } catch (final IOException e) {
+                LOG.error("Unable to start the Fedora 4 stand-in", e);
+                return;
+            }
+        }
+        if (cli.hasOption("mp")) {
+            metrics = new MetricsExporter(Integer.parseInt(cli.getOptionValue("mp")));
+            try {
+                metrics.start();
+            } catch (final IOException e) {
+                LOG.error("Unable to start the metrics endpoint", e);
+                if (standIn != null) {
+                    standIn.stop();
+                }
+                return;
+            }
+        }
+        try {
+            run(cli);
+        } finally {
+            if (standIn != null) {
+                standIn.stop();
+            }
+            if (metrics != null) {
+                metrics.stop();
+            }
+        }
+    }
+
+    private static void run(final CommandLine cli) {
+        if (cli.hasOption("ag")) {
+            try {
+                new BenchAgent(Integer.parseInt(cli.getOptionValue("ag"))).serve();
+            } catch (final IOException e) {
+                LOG.error("Unable to run as an agent", e);
+            }
+            return;
+        }
+
+        if (cli.hasOption("lo")) {
+            searchThroughput(cli);
+            return;
+        }
+        if (ParameterSweep.isSweep(cli.getOptionValue("t")) || ParameterSweep.isSweep(cli.getOptionValue("s")) ||
+                ParameterSweep.isSweep(cli.getOptionValue("ta"))) {
+            sweep(cli);
+            return;
+        }
+
+        try {
+            /* start the benchmark runner with the given parameters */
+            final FCRepoBenchRunner runner = createRunner(cli);
+            if (cli.hasOption("co")) {
+                runner.setCoordinator(new BenchCoordinator(getAgentAddresses(cli.getOptionValue("co")),
+                        getAgentArguments(cli)));
+            }
+            runner.runBenchmark();
+        } catch (final IOException e) {
+            LOG.error("Unable to run the benchmark against the Fedora instance at {}", getFedoraUri(cli), e);
+        } catch (final IllegalArgumentException e) {
+            LOG.error(e.getMessage());
+        } finally {
+            closeClients();
+        }
+    }
+
+    /**
+     * Run the benchmark once for every combination of the swept thread counts,
+     * binary sizes and numbers of actions per transaction
+     */
+    private static void sweep(final CommandLine cli) {
+        if (cli.hasOption("co")) {
+            LOG.error("Sweeps are not supported in distributed runs");
+            return;
+        }
+        if (ParameterSweep.isSweep(cli.getOptionValue("ta")) &&
+                (!cli.hasOption("tx") || cli.getOptionValue("tx").equalsIgnoreCase(TransactionMode.NONE.name()))) {
+            LOG.error("Sweeping the number of actions per transaction requires the transaction mode commit or " +
+                    "rollback");
+            return;
+        }
+        if (ParameterSweep.isSweep(cli.getOptionValue("s")) && cli.hasOption("sz")) {
+            LOG.error("Sweeping the binary size can not be combined with a size distribution");
+            return;
+        }
+        try {
+            new ParameterSweep(getArguments(cli, SWEEP_OPTIONS), cli.getOptionValue("t"), cli.getOptionValue("s"),
+                    cli.getOptionValue("ta")).run();
+        } catch (final ParseException | IOException e) {
+            LOG.error("Unable to run the sweep against the Fedora instance at {}", getFedoraUri(cli), e);
+        } catch (final IllegalArgumentException e) {
+            LOG.error(e.getMessage());
+        }
+    }
+
+    /**
+     * Print a request log written by a previous run as CSV or as the
+     * percentile distributions of the actions' durations
+     */
+    private static void convertRequestLog(final String path, final String format) {
+        try {
+            switch (format.toLowerCase()) {
+            case "csv":
+                RequestLog.toCsv(path, System.out);
+                break;
+            case "histogram":
+                RequestLog.toHistograms(path, System.out);
+                break;
+            default:
+                LOG.error("Unknown format {}, expected csv or histogram", format);
+                break;
+            }
+        } catch (final IOException e) {
+            LOG.error("Unable to convert the request log {}", path, e);
+        }
+    }
+
+    /**
+     * Compare a candidate run against a baseline run
+     *
+     * @return the exit code: 0 if the candidate did not regress, 1 if it did
+     *         and 2 if the runs could not be compared
+     */
+    private static int compare(final CommandLine cli) {
+        final String[] runs = cli.getOptionValue("cp").split(",");
+        if (runs.length != 2) {
+            LOG.error("Expected the baseline and the candidate separated by a comma instead of {}", cli
+                    .getOptionValue("cp"));
+            return 2;
+        }
+        try {
+            final RunComparison comparison =
+                    new RunComparison(Double.parseDouble(cli.getOptionValue("rt", "5")) / 100d, Double
+                            .parseDouble(cli.getOptionValue("sg", "0.05")));
+            return comparison.compare(runs[0].trim(), runs[1].trim()) ? 1 : 0;
+        } catch (final IOException | IllegalArgumentException e) {
+            LOG.error("Unable to compare the runs", e);
+            return 2;
+        }
+    }
+
+    /**
+     * Search for the highest rate meeting the latency objective, starting at
+     * the given rate
+     */
+    private static void searchThroughput(final CommandLine cli) {
+        if (cli.hasOption("co")) {
+            LOG.error("Searching the highest throughput is not supported in distributed runs");
+            return;
+        }
+        if (ParameterSweep.isSweep(cli.getOptionValue("t")) || ParameterSweep.isSweep(cli.getOptionValue("s")) ||
+                ParameterSweep.isSweep(cli.getOptionValue("ta"))) {
+            LOG.error("Searching the highest throughput can not be combined with a sweep");
+            return;
+        }
+        try {
+            new ThroughputSearch(getArguments(cli, SEARCH_OPTIONS), cli.getOptionValue("lo"), cli.hasOption("r")
+                    ? Double.parseDouble(cli.getOptionValue("r")) : 0).run();
+        } catch (final ParseException | IOException e) {
+            LOG.error("Unable to search the highest throughput of the Fedora instance at {}", getFedoraUri(cli), e);
+        } catch (final IllegalArgumentException e) {
+            LOG.error(e.getMessage());
+        }
+    }
+
+    /**
+     * Create a runner from the given command line arguments. This sets up the
+     * shared http clients as well, which have to be closed using
+     * {@link #closeClients()} after the run.
+     */
+    static FCRepoBenchRunner createRunner(final String[] args) throws ParseException, IOException {
+        return createRunner(new BasicParser().parse(createOptions(), args));
+    }
+
+    private static FCRepoBenchRunner createRunner(final CommandLine cli) throws IOException {
         /* set the defaults */
         int numBinaries = 1;
         long size = 1024;
         int numThreads = 1;
         Action action = Action.INGEST;
-        URI fedoraUri = URI.create("http://localhost:8080");
+        final URI fedoraUri = getFedoraUri(cli);
         String logPath = "durations.log";
         TransactionMode txMode = TransactionMode.NONE;
         int parallelTx = 1;
@@ -76,90 +321,235 @@ public class BenchTool {
         boolean preparationAsTx = true;
         boolean purge = true;
         boolean propertyAction = false;
+        double rate = 0;
+        long duration = 0;
+        long warmup = 0;
+        int preparationThreads = 0;
+        long payloadSeed = 0;
+        boolean verify = false;
+        Engine engine = Engine.THREADS;
+        int ioThreads = Runtime.getRuntime().availableProcessors();
 
         /* and get the individual settings from the command line */
-        final CommandLineParser parser = new BasicParser();
-        try {
-            final CommandLine cli = parser.parse(ops, args);
-            if (cli.hasOption("h")) {
-                printUsage(ops);
-                return;
-            }
-            if (cli.hasOption("f")) {
-                String uri = cli.getOptionValue("f");
-                uri = uri.replaceAll("/*$", "");
-                fedoraUri = URI.create(uri);
-            }
-            if (cli.hasOption("n")) {
-                numBinaries = Integer.parseInt(cli.getOptionValue("n"));
-            }
-            if (cli.hasOption("s")) {
-                size = getSizeFromArgument(cli.getOptionValue("s"));
-            }
-            if (cli.hasOption("a")) {
-                action = Action.valueOf(cli.getOptionValue("a").toUpperCase());
-            }
-            if (cli.hasOption("t")) {
-                numThreads = Integer.parseInt(cli.getOptionValue("t"));
-            }
-            if (cli.hasOption("l")) {
-                logPath = cli.getOptionValue("l");
-            }
-            if (cli.hasOption("tx")) {
-                txMode = TransactionMode.valueOf(cli.getOptionValue("tx").toUpperCase());
-            }
-            if (cli.hasOption("ta")) {
-                actionsPerTx = Integer.parseInt(cli.getOptionValue("ta"));
-            }
-            if (cli.hasOption("tp")) {
-                parallelTx = Integer.parseInt(cli.getOptionValue("tp"));
-            }
-            if (cli.hasOption("pt")) {
-                preparationAsTx = Boolean.parseBoolean(cli.getOptionValue("pt"));
+        if (cli.hasOption("n")) {
+            numBinaries = Integer.parseInt(cli.getOptionValue("n"));
+        }
+        if (cli.hasOption("s")) {
+            size = getSizeFromArgument(cli.getOptionValue("s"));
+        }
+        if (cli.hasOption("a")) {
+            action = Action.valueOf(cli.getOptionValue("a").toUpperCase());
+        }
+        if (cli.hasOption("t")) {
+            numThreads = Integer.parseInt(cli.getOptionValue("t"));
+        }
+        if (cli.hasOption("l")) {
+            logPath = cli.getOptionValue("l");
+        }
+        if (cli.hasOption("tx")) {
+            txMode = TransactionMode.valueOf(cli.getOptionValue("tx").toUpperCase());
+        }
+        if (cli.hasOption("ta")) {
+            actionsPerTx = Integer.parseInt(cli.getOptionValue("ta"));
+        }
+        if (cli.hasOption("tp")) {
+            parallelTx = Integer.parseInt(cli.getOptionValue("tp"));
+        }
+        if (cli.hasOption("pt")) {
+            preparationAsTx = Boolean.parseBoolean(cli.getOptionValue("pt"));
+        }
+        if (cli.hasOption('g')) {
+            purge = false;
+        }
+        if (cli.hasOption("pp")) {
+            propertyAction = true;
+        }
+        if (cli.hasOption("r")) {
+            rate = Double.parseDouble(cli.getOptionValue("r"));
+        }
+        if (cli.hasOption("pr")) {
+            preparationThreads = Integer.parseInt(cli.getOptionValue("pr"));
+        }
+        if (preparationThreads <= 0) {
+            preparationThreads = numThreads;
+        }
+        if (cli.hasOption("sd")) {
+            payloadSeed = Long.parseLong(cli.getOptionValue("sd"));
+        }
+        if (cli.hasOption("vr")) {
+            verify = true;
+        }
+        if (cli.hasOption("d")) {
+            duration = TimeUnit.SECONDS.toMillis(Long.parseLong(cli.getOptionValue("d")));
+        }
+        if (cli.hasOption("w")) {
+            warmup = TimeUnit.SECONDS.toMillis(Long.parseLong(cli.getOptionValue("w")));
+        }
+        if (cli.hasOption("e")) {
+            engine = Engine.valueOf(cli.getOptionValue("e").toUpperCase());
+        }
+        if (cli.hasOption("io")) {
+            ioThreads = Integer.parseInt(cli.getOptionValue("io"));
+        }
+        final HttpClientBuilder clientBuilder =
+                HttpClients.custom().setRedirectStrategy(new DefaultRedirectStrategy()).setRetryHandler(
+                        new StandardHttpRequestRetryHandler(0, false));
+        BasicCredentialsProvider cred = null;
+        if (cli.hasOption("u")) {
+            cred = new BasicCredentialsProvider();
+            cred.setCredentials(new AuthScope(fedoraUri.getHost(), fedoraUri.getPort()),
+                    new UsernamePasswordCredentials(cli.getOptionValue('u'), cli.getOptionValue('p')));
+            clientBuilder.setDefaultCredentialsProvider(cred);
+
+        }
+        final PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(Math.max(numThreads, preparationThreads));
+        connectionManager.setDefaultMaxPerRoute(Math.max(numThreads, preparationThreads));
+        clientBuilder.setConnectionManager(connectionManager);
+        httpClient = clientBuilder.build();
+        connectionPool = connectionManager;
+
+        if (engine == Engine.ASYNC) {
+            final PoolingNHttpClientConnectionManager asyncConnectionManager =
+                    new PoolingNHttpClientConnectionManager(new DefaultConnectingIOReactor(IOReactorConfig.custom()
+                            .setIoThreadCount(ioThreads).build()));
+            asyncConnectionManager.setMaxTotal(numThreads);
+            asyncConnectionManager.setDefaultMaxPerRoute(numThreads);
+            final HttpAsyncClientBuilder asyncBuilder =
+                    HttpAsyncClients.custom().setRedirectStrategy(new DefaultRedirectStrategy())
+                            .setConnectionManager(asyncConnectionManager);
+            if (cred != null) {
+                asyncBuilder.setDefaultCredentialsProvider(cred);
             }
-            if (cli.hasOption('g')) {
-                purge = false;
+            asyncHttpClient = asyncBuilder.build();
+            asyncHttpClient.start();
+            connectionPool = asyncConnectionManager;
+        }
+
+        final FCRepoBenchRunner runner =
+                new FCRepoBenchRunner(getFedoraVersion(fedoraUri), fedoraUri, action, numBinaries, size,
+                        numThreads, logPath, txMode, actionsPerTx, parallelTx, preparationAsTx, propertyAction,
+                        purge);
+        runner.setRate(rate);
+        runner.setDuration(duration);
+        runner.setWarmup(warmup);
+        runner.setPreparationThreads(preparationThreads);
+        runner.setPayloadSeed(payloadSeed);
+        runner.setVerify(verify);
+        runner.setEngine(engine);
+        if (cli.hasOption("mx")) {
+            runner.setWorkload(Workload.parse(cli.getOptionValue("mx")));
+        }
+        if (cli.hasOption("kd")) {
+            runner.setKeyDistribution(cli.getOptionValue("kd"));
+        }
+        if (cli.hasOption("sz")) {
+            runner.setSizeDistribution(SizeDistribution.parse(cli.getOptionValue("sz")));
+        }
+        if (cli.hasOption("rl")) {
+            runner.setRequestLog(cli.getOptionValue("rl"));
+        }
+        if (cli.hasOption("ri")) {
+            runner.setIntervalReport(TimeUnit.SECONDS.toMillis(Long.parseLong(cli.getOptionValue("ri"))), cli
+                    .getOptionValue("rc"));
+        }
+        runner.setReports(cli.getOptionValue("jr"), cli.getOptionValue("cs"));
+        runner.setOptions(getOptionValues(cli));
+        if (metrics != null) {
+            metrics.setRunner(runner);
+        }
+        return runner;
+    }
+
+    static void closeClients() {
+        connectionPool = null;
+        if (asyncHttpClient != null) {
+            try {
+                asyncHttpClient.close();
+            } catch (final IOException e) {
+                LOG.warn("Unable to shut down the async http client", e);
             }
-            if (cli.hasOption("pp")) {
-                propertyAction = true;
+            asyncHttpClient = null;
+        }
+        if (httpClient != null) {
+            try {
+                httpClient.close();
+            } catch (final IOException e) {
+                LOG.warn("Unable to shut down the http client", e);
             }
-            final HttpClientBuilder clientBuilder =
-                    HttpClients.custom().setRedirectStrategy(new DefaultRedirectStrategy()).setRetryHandler(
-                            new StandardHttpRequestRetryHandler(0, false));
-            if (cli.hasOption("u")) {
-                final BasicCredentialsProvider cred = new BasicCredentialsProvider();
-                cred.setCredentials(new AuthScope(fedoraUri.getHost(), fedoraUri.getPort()),
-                        new UsernamePasswordCredentials(cli.getOptionValue('u'), cli.getOptionValue('p')));
-                clientBuilder.setDefaultCredentialsProvider(cred);
+            httpClient = null;
+        }
+    }
 
+    private static URI getFedoraUri(final CommandLine cli) {
+        if (cli.hasOption("f")) {
+            return URI.create(cli.getOptionValue("f").replaceAll("/*$", ""));
+        }
+        if (cli.hasOption("si")) {
+            return URI.create("http://localhost:" + cli.getOptionValue("si"));
+        }
+        return URI.create("http://localhost:8080");
+    }
+
+    private static List<InetSocketAddress> getAgentAddresses(final String optionValue) {
+        final List<InetSocketAddress> agents = new ArrayList<>();
+        for (final String agent : optionValue.split(",")) {
+            final int colon = agent.lastIndexOf(':');
+            if (colon <= 0) {
+                throw new IllegalArgumentException("Agent " + agent + " could not be parsed, expected host:port");
             }
-            clientBuilder.setMaxConnTotal(numThreads);
-            clientBuilder.setMaxConnPerRoute(numThreads);
-            httpClient = clientBuilder.build();
+            agents.add(new InetSocketAddress(agent.substring(0, colon).trim(), Integer.parseInt(agent.substring(
+                    colon + 1).trim())));
+        }
+        return agents;
+    }
 
-        } catch (final ParseException e) {
-            LOG.error("Unable to parse command line", e);
+    /**
+     * The agents receive the coordinator's command line without the options
+     * which are either split between the agents or only make sense locally
+     */
+    private static List<String> getAgentArguments(final CommandLine cli) {
+        return getArguments(cli, COORDINATOR_OPTIONS);
+    }
+
+    /**
+     * @return the values of the given options by their long names, the
+     *         password is left out
+     */
+    private static Map<String, String> getOptionValues(final CommandLine cli) {
+        final Map<String, String> values = new TreeMap<>();
+        for (final Option o : cli.getOptions()) {
+            if (!o.getOpt().equals("p")) {
+                values.put(o.getLongOpt() == null ? o.getOpt() : o.getLongOpt(), o.hasArg() ? o.getValue() : "true");
+            }
         }
+        return values;
+    }
 
-        try {
-            /* start the benchmark runner with the given parameters */
-            final FCRepoBenchRunner runner =
-                    new FCRepoBenchRunner(getFedoraVersion(fedoraUri), fedoraUri, action, numBinaries, size,
-                            numThreads, logPath, txMode, actionsPerTx, parallelTx, preparationAsTx, propertyAction,
-                            purge);
-            runner.runBenchmark();
-        } catch (final IOException e) {
-            LOG.error("Unable to connect to a Fedora instance at {}", fedoraUri, e);
+    /**
+     * @return the given command line without the excluded options
+     */
+    private static List<String> getArguments(final CommandLine cli, final Set<String> excluded) {
+        final List<String> args = new ArrayList<>();
+        for (final Option o : cli.getOptions()) {
+            if (excluded.contains(o.getOpt())) {
+                continue;
+            }
+            args.add("-" + o.getOpt());
+            if (o.hasArg()) {
+                args.add(o.getValue());
+            }
         }
+        return args;
     }
 
-    private static long getSizeFromArgument(final String optionValue) {
+    static long getSizeFromArgument(final String optionValue) {
         final Matcher m = Pattern.compile("^(\\d*)([kKmMgGtT]{0,1})$").matcher(optionValue);
         if (!m.find()) {
             throw new IllegalArgumentException("Size " + optionValue + " could not be parsed");
         }
         final long size = Long.parseLong(m.group(1));
-        if (m.groupCount() == 1) {
+        if (m.group(2).isEmpty()) {
             return size;
         }
         final char postfix = m.group(2).charAt(0);
@@ -192,11 +582,13 @@ public class BenchTool {
         ops.addOption(OptionBuilder
                 .withArgName("size")
                 .withDescription(
-                        "The size of the individual binaries used. Sizes with a k,m,g or t postfix will be interpreted as kilo-, mega-, giga- and terabyte [default=1024]")
+                        "The size of the individual binaries used. Sizes with a k,m,g or t postfix will be interpreted as kilo-, mega-, giga- and terabyte. A comma separated list or a range runs a sweep, see --num-threads. [default=1024]")
                         .withLongOpt("size").hasArg().create('s'));
-        ops.addOption(OptionBuilder.withArgName("num-threads").withDescription(
-                "The number of threads used for performing all actions. [default=1]").withLongOpt("num-threads")
-                .hasArg().create('t'));
+        ops.addOption(OptionBuilder
+                .withArgName("num-threads")
+                .withDescription(
+                        "The number of threads used for performing all actions. A comma separated list like 1,2,4 or a range like 1..64, which doubles the number of threads from step to step, runs the benchmark once per value, prints the throughput and latency curve and its knee. The runs share the prepared objects. [default=1]")
+                .withLongOpt("num-threads").hasArg().create('t'));
         ops.addOption(OptionBuilder.withArgName("user").withDescription("The fedora user name").withLongOpt("user")
                 .hasArg().create('u'));
         ops.addOption(OptionBuilder.withArgName("password").withDescription("The user's password").withLongOpt(
@@ -215,7 +607,7 @@ public class BenchTool {
         ops.addOption(OptionBuilder
                 .withArgName("num-actions-per-tx")
                 .withDescription(
-                        "Maximum number of actions to perform per transaction. Values <= 0 indicate unlimited actions. [default=0]")
+                        "Maximum number of actions to perform per transaction. Values <= 0 indicate unlimited actions. A comma separated list or a range runs a sweep, see --num-threads. [default=0]")
                         .withLongOpt("tx-num-actions").hasArg().create("ta"));
         ops.addOption(OptionBuilder.withArgName("num-parallel-tx").withDescription(
                 "Number of transactions to perform simultaneously. [default=1]").withLongOpt("tx-parallel").hasArg()
@@ -225,6 +617,146 @@ public class BenchTool {
                 .withDescription(
                         "Whether to perform preparation and tear down steps as transactions for supporting Fedora versions. Boolean. [default=true]")
                         .withLongOpt("prep-tx").hasArg().create("pt"));
+        ops.addOption(OptionBuilder
+                .withArgName("actions-per-sec")
+                .withDescription(
+                        "Issue the actions open loop at a constant rate of actions per second. Latencies are measured from the intended start time of each action. At most 10000 actions are queued ahead of the threads. Values <= 0 run the actions closed loop. [default=0]")
+                        .withLongOpt("rate").hasArg().create('r'));
+        ops.addOption(OptionBuilder
+                .withArgName("seconds")
+                .withDescription(
+                        "Run the benchmark for the given number of seconds instead of a fixed number of actions. The prepared objects are reused unless the action can be performed only once per object. [default=0]")
+                        .withLongOpt("duration").hasArg().create('d'));
+        ops.addOption(OptionBuilder
+                .withArgName("seconds")
+                .withDescription(
+                        "Perform actions for the given number of seconds before starting the clock. These actions are not part of the results. Actions which can be performed only once per object, like ingest and delete, can only be warmed up in runs with a duration. [default=0]")
+                        .withLongOpt("warmup").hasArg().create('w'));
+        ops.addOption(OptionBuilder
+                .withArgName("num-threads")
+                .withDescription(
+                        "The number of threads used for preparing and purging the objects. [default=num-threads]")
+                        .withLongOpt("prep-threads").hasArg().create("pr"));
+        ops.addOption(OptionBuilder
+                .withArgName("seed")
+                .withDescription(
+                        "The seed from which the content of the binaries is derived. A binary's content depends only on the seed, the object's pid and the size. [default=0]")
+                        .withLongOpt("seed").hasArg().create("sd"));
+        ops.addOption(OptionBuilder.withDescription(
+                "Verify the content of every retrieved binary and count the corrupted responses").withLongOpt(
+                "verify").create("vr"));
+        ops.addOption(OptionBuilder
+                .withArgName("engine")
+                .withDescription(
+                        "The execution engine, can be one of threads, async or virtual. The async engine keeps up to num-threads requests in flight using non-blocking I/O and does not support transactions. The virtual engine runs every action on its own virtual thread with up to num-threads actions in flight and requires Java 21. [default=threads]")
+                        .withLongOpt("engine").hasArg().create('e'));
+        ops.addOption(OptionBuilder.withArgName("num-threads").withDescription(
+                "The number of I/O threads used by the async engine. [default=number of processors]").withLongOpt(
+                "io-threads").hasArg().create("io"));
+        ops.addOption(OptionBuilder
+                .withArgName("action:weight,...")
+                .withDescription(
+                        "Perform a weighted mix of actions in a single run instead of a single action, e.g. read:80,update:10,ingest:5,read_property:5. The objects are prepared for every action of the mix and the statistics are kept per action.")
+                        .withLongOpt("mix").hasArg().create("mx"));
+        ops.addOption(OptionBuilder
+                .withArgName("distribution")
+                .withDescription(
+                        "How to choose the objects for actions which can be performed more than once per object. Can be one of sequential, uniform, zipfian[:theta], hotspot[:ops-percent:keys-percent] or latest[:theta]. [default=sequential]")
+                        .withLongOpt("key-distribution").hasArg().create("kd"));
+        ops.addOption(OptionBuilder
+                .withArgName("distribution")
+                .withDescription(
+                        "Draw the size of every binary from a distribution instead of using a single size. Can be a weighted list of sizes like 10k:70,50m:25,4g:5, lognormal:median:sigma or file:path to read a histogram with the upper bound of a bucket and a count on every line. Overrides the size.")
+                        .withLongOpt("size-distribution").hasArg().create("sz"));
+        ops.addOption(OptionBuilder
+                .withArgName("objective")
+                .withDescription(
+                        "Search for the highest rate meeting a latency objective like read:p99:200, which requires the 99th percentile of the read latencies to be at most 200 ms. Without an action the latencies of all actions are considered. The benchmark is run open loop, doubling the rate until the objective is missed and narrowing it down by a binary search. The search starts at the rate given by --rate. [default start rate=10]")
+                        .withLongOpt("latency-objective").hasArg().create("lo"));
+        ops.addOption(OptionBuilder
+                .withArgName("file")
+                .withDescription(
+                        "Write the time, action, status, latency, duration and size of every measured request to a compact binary log. The log can be converted using --convert-log.")
+                        .withLongOpt("request-log").hasArg().create("rl"));
+        ops.addOption(OptionBuilder
+                .withArgName("file")
+                .withDescription(
+                        "Print a request log written by a previous run in the format given by --convert-format instead of running the benchmark.")
+                        .withLongOpt("convert-log").hasArg().create("cl"));
+        ops.addOption(OptionBuilder
+                .withArgName("format")
+                .withDescription(
+                        "The format a request log is converted to. Can be one of csv or histogram, which prints the percentile distribution of every action's latencies in the format of HdrHistogram. [default=csv]")
+                        .withLongOpt("convert-format").hasArg().create("cf"));
+        ops.addOption(OptionBuilder
+                .withArgName("seconds")
+                .withDescription(
+                        "Report the throughput, the number of errors, the actions in flight and the p50 and p99 latencies of the measured actions every given number of seconds while the run is in progress.")
+                        .withLongOpt("report-interval").hasArg().create("ri"));
+        ops.addOption(OptionBuilder
+                .withArgName("file")
+                .withDescription(
+                        "Append the intervals reported by --report-interval to the given CSV file, which is created with a header line if it does not exist.")
+                        .withLongOpt("report-csv").hasArg().create("rc"));
+        ops.addOption(OptionBuilder
+                .withArgName("port")
+                .withDescription(
+                        "Serve the live counters and latencies of the run in the Prometheus text format at http://localhost:<port>/metrics and register them as JMX MBeans in the org.fcrepo.bench domain.")
+                        .withLongOpt("metrics-port").hasArg().create("mp"));
+        ops.addOption(OptionBuilder
+                .withArgName("file")
+                .withDescription(
+                        "Write a JSON report of the run to the given file, containing the parameters, the Fedora version and cluster size, the percentiles, throughput and errors of every action and the transaction timings. The layout is versioned by its report_version field.")
+                        .withLongOpt("json-report").hasArg().create("jr"));
+        ops.addOption(OptionBuilder
+                .withArgName("file")
+                .withDescription(
+                        "Append a CSV row summarizing the run to the given file, which is created with a header line if it does not exist. The columns are the same for every kind of run.")
+                        .withLongOpt("csv-summary").hasArg().create("cs"));
+        ops.addOption(OptionBuilder
+                .withArgName("baseline,candidate")
+                .withDescription(
+                        "Compare a candidate run against a baseline run instead of running the benchmark and exit with 1 if the candidate regressed. Every run is read from a JSON report, a request log or a durations log. The latencies are compared using a Mann-Whitney U test and the throughput per second using Welch's t-test.")
+                        .withLongOpt("compare").hasArg().create("cp"));
+        ops.addOption(OptionBuilder
+                .withArgName("percent")
+                .withDescription(
+                        "The increase of the median latency or decrease of the throughput in percent which is considered a regression by --compare, if it is significant. [default=5]")
+                        .withLongOpt("regression-threshold").hasArg().create("rt"));
+        ops.addOption(OptionBuilder
+                .withArgName("level")
+                .withDescription(
+                        "The significance level of the tests performed by --compare. [default=0.05]")
+                        .withLongOpt("significance").hasArg().create("sg"));
+        ops.addOption(OptionBuilder
+                .withArgName("port")
+                .withDescription(
+                        "Serve a stand-in for the Fedora 4 REST API on the given port for the duration of the run, which is used as the Fedora instance unless --fedora-url is set. The stand-in measures the overhead and highest throughput of the tool itself and needs no repository or network.")
+                        .withLongOpt("stand-in").hasArg().create("si"));
+        ops.addOption(OptionBuilder
+                .withArgName("millis")
+                .withDescription(
+                        "The number of milliseconds every response of the --stand-in is delayed. [default=0]")
+                        .withLongOpt("stand-in-latency").hasArg().create("sl"));
+        ops.addOption(OptionBuilder
+                .withArgName("size")
+                .withDescription(
+                        "The bytes per second every request and response body of the --stand-in is throttled to. Allowed postfixes are k, m and g. [default=0, unlimited]")
+                        .withLongOpt("stand-in-bandwidth").hasArg().create("sb"));
+        ops.addOption(OptionBuilder
+                .withDescription(
+                        "Keep the binaries written to the --stand-in in memory, so they are read back and can be verified. By default they are discarded and read back as zeros.")
+                        .withLongOpt("stand-in-store").create("ss"));
+        ops.addOption(OptionBuilder
+                .withArgName("port")
+                .withDescription(
+                        "Run as an agent listening for a coordinator on the given port. All other options are sent by the coordinator.")
+                        .withLongOpt("agent").hasArg().create("ag"));
+        ops.addOption(OptionBuilder
+                .withArgName("host:port,...")
+                .withDescription(
+                        "Coordinate a run on the given agents instead of generating the load locally. The number of actions and the rate are split between the agents, all other options apply to every agent.")
+                        .withLongOpt("coordinate").hasArg().create("co"));
         ops.addOption(OptionBuilder.withDescription("Perform action ingest, read, update, or delete on a property")
                 .withLongOpt("property").create("pp"));
         ops.addOption(OptionBuilder.withDescription(
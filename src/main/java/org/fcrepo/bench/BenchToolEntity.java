@@ -4,24 +4,74 @@
 
 package org.fcrepo.bench;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.apache.http.entity.AbstractHttpEntity;
 import org.apache.http.entity.ContentType;
-import org.apache.http.entity.InputStreamEntity;
 
 /**
  * @author frank asseg
  */
-public class BenchToolEntity extends InputStreamEntity {
+public class BenchToolEntity extends AbstractHttpEntity {
+
+    private final long size;
+
+    private final byte[] slice;
+
+    private final long seed;
 
-    public BenchToolEntity(long size, byte[] slice) {
-        super(new BenchToolInputStream(size, slice), size, ContentType.APPLICATION_OCTET_STREAM);
+    public BenchToolEntity(long size, byte[] slice, long seed) {
+        super();
+        this.size = size;
+        this.slice = slice;
+        this.seed = seed;
+        setContentType(ContentType.APPLICATION_OCTET_STREAM.toString());
     }
 
     /*
      * (non-Javadoc)
-     * @see org.apache.http.entity.InputStreamEntity#isRepeatable()
+     * @see org.apache.http.HttpEntity#isRepeatable()
      */
     @Override
     public boolean isRepeatable() {
         return true;
     }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.http.HttpEntity#getContentLength()
+     */
+    @Override
+    public long getContentLength() {
+        return size;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.http.HttpEntity#getContent()
+     */
+    @Override
+    public InputStream getContent() throws IOException {
+        return new BenchToolInputStream(size, slice, seed);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.http.HttpEntity#writeTo(java.io.OutputStream)
+     */
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        new BenchToolInputStream(size, slice, seed).writeTo(out);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.http.HttpEntity#isStreaming()
+     */
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
 }
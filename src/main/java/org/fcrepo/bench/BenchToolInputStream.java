@@ -3,7 +3,18 @@ package org.fcrepo.bench;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.Checksum;
 
+/**
+ * Generates a pseudo random payload of a given size by copying chunks of a
+ * random slice, starting each chunk at a random offset in the first half of
+ * the slice. The offsets are drawn from a generator owned by the stream, so
+ * concurrent streams never contend on shared state and no buffers are
+ * allocated while reading. Streams created with the same seed produce the
+ * same bytes.
+ */
 public class BenchToolInputStream extends InputStream {
 
     private final long size;
@@ -16,36 +27,156 @@ public class BenchToolInputStream extends InputStream {
 
     private int slicePos;
 
+    private long state;
+
     public BenchToolInputStream(long size, byte[] slice) {
+        this(size, slice, ThreadLocalRandom.current().nextLong());
+    }
+
+    public BenchToolInputStream(long size, byte[] slice, long seed) {
         super();
         this.size = size;
         this.slice = slice;
         this.sliceLen = slice.length;
+        this.slicePos = sliceLen;
+        /* xorshift needs a non zero state */
+        this.state = seed == 0 ? 0x9E3779B97F4A7C15L : seed;
     }
 
     @Override
     public int read() throws IOException {
-        if (slicePos == 0 || slicePos == sliceLen - 1) {
-            slicePos = BenchTool.RNG.nextInt((int) Math.floor(sliceLen / 2f));
+        if (bytesRead >= size) {
+            return -1;
+        }
+        if (slicePos == sliceLen) {
+            nextChunk();
         }
-        return slice[slicePos++];
+        bytesRead++;
+        return slice[slicePos++] & 0xff;
     }
 
     @Override
     public int read(byte[] b) throws IOException {
-        int i = 0;
-        for (; i < b.length; ++i) {
-            b[i] = (byte) read();
-        }
-        return i;
+        return read(b, 0, b.length);
     }
 
     @Override
     public int read(byte[] b, int off, int len) throws IOException {
-        int i = 0;
-        for (; i < len; ++i) {
-            b[i] = (byte) read();
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len == 0) {
+            return 0;
+        }
+        if (bytesRead >= size) {
+            return -1;
+        }
+        final int total = (int) Math.min(len, size - bytesRead);
+        int copied = 0;
+        while (copied < total) {
+            if (slicePos == sliceLen) {
+                nextChunk();
+            }
+            final int n = Math.min(total - copied, sliceLen - slicePos);
+            System.arraycopy(slice, slicePos, b, off + copied, n);
+            slicePos += n;
+            copied += n;
+        }
+        bytesRead += copied;
+        return copied;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        final long total = Math.max(0, Math.min(n, size - bytesRead));
+        long skipped = 0;
+        while (skipped < total) {
+            if (slicePos == sliceLen) {
+                nextChunk();
+            }
+            final int k = (int) Math.min(total - skipped, sliceLen - slicePos);
+            slicePos += k;
+            skipped += k;
+        }
+        bytesRead += skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (int) Math.min(Integer.MAX_VALUE, size - bytesRead);
+    }
+
+    /**
+     * Write the remaining bytes of the payload directly from the slice to the
+     * given stream without copying them into an intermediate buffer
+     *
+     * @param out the stream to write to
+     * @throws IOException
+     */
+    public void writeTo(final OutputStream out) throws IOException {
+        while (bytesRead < size) {
+            if (slicePos == sliceLen) {
+                nextChunk();
+            }
+            final int n = (int) Math.min(size - bytesRead, sliceLen - slicePos);
+            out.write(slice, slicePos, n);
+            slicePos += n;
+            bytesRead += n;
         }
-        return i;
+    }
+
+    /**
+     * Advance the stream by up to the given number of bytes and add them to
+     * the checksum without copying them
+     *
+     * @param checksum the checksum to update
+     * @param len the number of bytes to advance
+     * @return the number of bytes the stream has been advanced by
+     */
+    public long update(final Checksum checksum, final long len) {
+        final long total = Math.max(0, Math.min(len, size - bytesRead));
+        long updated = 0;
+        while (updated < total) {
+            if (slicePos == sliceLen) {
+                nextChunk();
+            }
+            final int n = (int) Math.min(total - updated, sliceLen - slicePos);
+            checksum.update(slice, slicePos, n);
+            slicePos += n;
+            updated += n;
+        }
+        bytesRead += updated;
+        return updated;
+    }
+
+    /**
+     * Derive the seed of a payload, so that the content of a binary is a
+     * deterministic function of the run's seed, the object's pid and the
+     * binary's size
+     *
+     * @param seed the seed of the run
+     * @param pid the pid of the object
+     * @param size the size of the binary
+     * @return the seed for the payload
+     */
+    public static long seed(final long seed, final String pid, final long size) {
+        /* FNV-1a over the pid, mixed with the seed and the size */
+        long hash = 0xcbf29ce484222325L ^ seed;
+        for (int i = 0; i < pid.length(); i++) {
+            hash ^= pid.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= size;
+        hash *= 0x100000001b3L;
+        return hash;
+    }
+
+    private void nextChunk() {
+        /* xorshift64 */
+        state ^= state << 13;
+        state ^= state >>> 7;
+        state ^= state << 17;
+        slicePos = (int) ((state >>> 1) % (sliceLen / 2));
     }
 }
@@ -4,6 +4,8 @@
 
 package org.fcrepo.bench;
 
+import java.util.concurrent.TimeUnit;
+
 /**
  * @author frank asseg
  */
@@ -15,11 +17,42 @@ public class BenchToolResult {
 
     private final long size;
 
+    private final long timeToFirstByte;
+
+    private final boolean corrupt;
+
+    private final long completedAt;
+
     public BenchToolResult(float throughput, long duration, long size) {
+        this(throughput, duration, size, -1, false);
+    }
+
+    public BenchToolResult(float throughput, long duration, long size, long timeToFirstByte, boolean corrupt) {
         super();
         this.throughput = throughput;
         this.duration = duration;
         this.size = size;
+        this.timeToFirstByte = timeToFirstByte;
+        this.corrupt = corrupt;
+        /* results are created as soon as their action completed */
+        this.completedAt = System.nanoTime();
+    }
+
+    /**
+     * Create the result of a transfer measured with {@link System#nanoTime()}
+     *
+     * @param durationNanos the time until the last byte has been transferred
+     * @param timeToFirstByteNanos the time until the response headers arrived
+     * @param size the number of bytes transferred
+     * @param corrupt whether the transferred bytes did not match the expected
+     *        payload
+     * @return the result
+     */
+    public static BenchToolResult fromTransfer(final long durationNanos, final long timeToFirstByteNanos,
+            final long size, final boolean corrupt) {
+        final float throughput = durationNanos == 0 ? 0f : size * (float) TimeUnit.SECONDS.toNanos(1) / durationNanos;
+        return new BenchToolResult(throughput, TimeUnit.NANOSECONDS.toMillis(durationNanos), size,
+                TimeUnit.NANOSECONDS.toMillis(timeToFirstByteNanos), corrupt);
     }
 
     /**
@@ -42,4 +75,27 @@ public class BenchToolResult {
     public long getSize() {
         return size;
     }
+
+    /**
+     * @return the time to first byte, or -1 if the action did not transfer a
+     *         response body
+     */
+    public long getTimeToFirstByte() {
+        return timeToFirstByte;
+    }
+
+    /**
+     * @return the time the action completed at as measured by
+     *         {@link System#nanoTime()}
+     */
+    public long getCompletedAt() {
+        return completedAt;
+    }
+
+    /**
+     * @return true if the payload has been verified and did not match
+     */
+    public boolean isCorrupt() {
+        return corrupt;
+    }
 }
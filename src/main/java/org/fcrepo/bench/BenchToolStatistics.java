@@ -0,0 +1,187 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.bench;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.DataFormatException;
+
+import org.HdrHistogram.Histogram;
+import org.fcrepo.bench.BenchTool.Action;
+
+/**
+ * Per {@link Action} statistics of a benchmark run. The statistics for every
+ * action are created up front, so lookups never need to synchronize.
+ */
+public class BenchToolStatistics {
+
+    private final Map<Action, ActionStatistics> stats;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    public BenchToolStatistics() {
+        super();
+        final Map<Action, ActionStatistics> map = new EnumMap<>(Action.class);
+        for (final Action action : Action.values()) {
+            map.put(action, new ActionStatistics(action));
+        }
+        this.stats = Collections.unmodifiableMap(map);
+    }
+
+    public void record(final Action action, final long latency, final BenchToolResult result) {
+        final ActionStatistics actionStats = stats.get(action);
+        actionStats.record(latency, result.getDuration(), result.getTimeToFirstByte(), result.getSize());
+        if (result.isCorrupt()) {
+            actionStats.recordCorruption();
+        }
+    }
+
+    public void recordError(final Action action) {
+        stats.get(action).recordError();
+    }
+
+    /**
+     * Count an action as in flight until {@link #actionFinished()} is called
+     */
+    public void actionStarted() {
+        inFlight.incrementAndGet();
+    }
+
+    public void actionFinished() {
+        inFlight.decrementAndGet();
+    }
+
+    /**
+     * @return the number of actions which have been started but not finished
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public ActionStatistics get(final Action action) {
+        return stats.get(action);
+    }
+
+    /**
+     * @return the statistics of all actions which have been recorded or
+     *         failed at least once
+     */
+    public List<ActionStatistics> getRecorded() {
+        final List<ActionStatistics> recorded = new ArrayList<>();
+        for (final ActionStatistics s : stats.values()) {
+            if (s.getErrors() > 0 || s.getCount() > 0) {
+                recorded.add(s);
+            }
+        }
+        return recorded;
+    }
+
+    /**
+     * @return the sum of the service times of all actions in milliseconds
+     */
+    public long getDuration() {
+        long duration = 0;
+        for (final ActionStatistics s : stats.values()) {
+            duration += s.getDuration();
+        }
+        return duration;
+    }
+
+    /**
+     * @return the number of failed actions
+     */
+    public long getErrors() {
+        long errors = 0;
+        for (final ActionStatistics s : stats.values()) {
+            errors += s.getErrors();
+        }
+        return errors;
+    }
+
+    /**
+     * @return the number of bytes transferred by all actions
+     */
+    public long getBytes() {
+        long bytes = 0;
+        for (final ActionStatistics s : stats.values()) {
+            bytes += s.getBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * Write the statistics of all recorded actions in a compact binary form
+     * which can be merged into other statistics using
+     * {@link #readFrom(DataInput)}
+     */
+    public void writeTo(final DataOutput out) throws IOException {
+        final List<ActionStatistics> recorded = getRecorded();
+        out.writeInt(recorded.size());
+        for (final ActionStatistics s : recorded) {
+            out.writeUTF(s.getAction().name());
+            writeHistogram(out, s.getHistogram());
+            writeHistogram(out, s.getServiceTimeHistogram());
+            writeHistogram(out, s.getTimeToFirstByteHistogram());
+            out.writeLong(s.getDuration());
+            out.writeLong(s.getBytes());
+            out.writeLong(s.getCorruptions());
+            out.writeLong(s.getErrors());
+        }
+    }
+
+    /**
+     * Merge statistics written by {@link #writeTo(DataOutput)} into these
+     * statistics
+     */
+    public void readFrom(final DataInput in) throws IOException {
+        final int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            final Action action = Action.valueOf(in.readUTF());
+            final Histogram latencies = readHistogram(in);
+            final Histogram serviceTimes = readHistogram(in);
+            final Histogram firstBytes = readHistogram(in);
+            stats.get(action).add(latencies, serviceTimes, firstBytes, in.readLong(), in.readLong(), in.readLong(),
+                    in.readLong());
+        }
+    }
+
+    private static void writeHistogram(final DataOutput out, final Histogram histogram) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(histogram.getNeededByteBufferCapacity());
+        final int length = histogram.encodeIntoCompressedByteBuffer(buffer);
+        out.writeInt(length);
+        out.write(buffer.array(), 0, length);
+    }
+
+    private static Histogram readHistogram(final DataInput in) throws IOException {
+        final byte[] data = new byte[in.readInt()];
+        in.readFully(data);
+        try {
+            return Histogram.decodeFromCompressedByteBuffer(ByteBuffer.wrap(data),
+                    ActionStatistics.HIGHEST_TRACKABLE_VALUE);
+        } catch (final DataFormatException e) {
+            throw new IOException("Unable to decode histogram", e);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.bench;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.apache.http.HttpEntity;
+
+/**
+ * Reads response bodies to the end and throws the bytes away. The buffers are
+ * taken from a pool shared by all threads and returned after the body has
+ * been drained, so draining a body does not allocate, even on the short lived
+ * virtual threads which perform a single request each. The pool grows to the
+ * highest number of bodies drained at the same time.
+ */
+public final class DiscardSink {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final Queue<byte[]> BUFFERS = new ConcurrentLinkedQueue<>();
+
+    private DiscardSink() {
+    }
+
+    /**
+     * Read the entity's content to the end
+     *
+     * @param entity the entity to drain, may be null
+     * @return the number of bytes read
+     * @throws IOException
+     */
+    public static long drain(final HttpEntity entity) throws IOException {
+        return drain(entity, null);
+    }
+
+    /**
+     * Read the entity's content to the end, passing every chunk to the
+     * verifier
+     *
+     * @param entity the entity to drain, may be null
+     * @param verifier the verifier of the content, may be null
+     * @return the number of bytes read
+     * @throws IOException
+     */
+    public static long drain(final HttpEntity entity, final PayloadVerifier verifier) throws IOException {
+        if (entity == null) {
+            return 0;
+        }
+        try (final InputStream in = entity.getContent()) {
+            return drain(in, verifier);
+        }
+    }
+
+    /**
+     * Read the stream to the end
+     *
+     * @param in the stream to drain
+     * @return the number of bytes read
+     * @throws IOException
+     */
+    public static long drain(final InputStream in) throws IOException {
+        return drain(in, null);
+    }
+
+    /**
+     * Read the stream to the end, passing every chunk to the verifier
+     *
+     * @param in the stream to drain
+     * @param verifier the verifier of the content, may be null
+     * @return the number of bytes read
+     * @throws IOException
+     */
+    public static long drain(final InputStream in, final PayloadVerifier verifier) throws IOException {
+        byte[] buffer = BUFFERS.poll();
+        if (buffer == null) {
+            buffer = new byte[BUFFER_SIZE];
+        }
+        try {
+            long count = 0;
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                if (verifier != null) {
+                    verifier.update(buffer, 0, read);
+                }
+                count += read;
+            }
+            return count;
+        } finally {
+            BUFFERS.offer(buffer);
+        }
+    }
+}
@@ -7,21 +7,42 @@ package org.fcrepo.bench;
 import static org.fcrepo.bench.TransactionStateManager.TransactionMode.COMMIT;
 import static org.fcrepo.bench.TransactionStateManager.TransactionMode.ROLLBACK;
 
+import java.io.BufferedOutputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
+import org.HdrHistogram.Histogram;
 import org.fcrepo.bench.BenchTool.Action;
+import org.fcrepo.bench.BenchTool.Engine;
 import org.fcrepo.bench.BenchTool.FedoraVersion;
+import org.fcrepo.bench.PreparationRunner.Step;
 import org.fcrepo.bench.TransactionStateManager.TransactionMode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -30,11 +51,44 @@ import com.ibm.icu.text.DecimalFormat;
 
 public class FCRepoBenchRunner {
 
-    private static final DecimalFormat FORMAT = new DecimalFormat("###.##");
+    /**
+     * Callbacks around the measurement phase, used by agents to synchronize
+     * with their coordinator
+     */
+    public interface PhaseListener {
+
+        /**
+         * Called after the objects have been prepared, right before the first
+         * action is scheduled
+         */
+        void beforeMeasurement() throws IOException;
+
+        /**
+         * Called after all actions have completed, before the objects are
+         * purged
+         */
+        void afterMeasurement() throws IOException;
+    }
+
+    static final DecimalFormat FORMAT = new DecimalFormat("###.##");
+
+    /* the number of actions an open loop run may queue ahead of the threads before the scheduling blocks */
+    private static final int MAX_QUEUED_ACTIONS = 10000;
+
+    /* the number of results which may wait for the collector before the scheduling blocks */
+    private static final int MAX_PENDING_RESULTS = 10000;
 
     private static final Logger LOG = LoggerFactory.getLogger(FCRepoBenchRunner.class);
 
-    private final List<BenchToolResult> results = Collections.synchronizedList(new ArrayList<BenchToolResult>());
+    /* actions which can be performed only once per prepared object */
+    private static final Set<Action> CONSUMING_ACTIONS = EnumSet.of(Action.INGEST, Action.DELETE,
+            Action.CREATE_PROPERTY, Action.DELETE_PROPERTY);
+
+    /* actions which are supported by Fedora 3 */
+    private static final Set<Action> FCREPO3_ACTIONS = EnumSet.of(Action.INGEST, Action.READ, Action.UPDATE,
+            Action.DELETE);
+
+    private final BenchToolStatistics stats = new BenchToolStatistics();
 
     private final FedoraVersion version;
 
@@ -42,18 +96,24 @@ public class FCRepoBenchRunner {
 
     private Action action;
 
-    private final int numBinaries;
+    private Workload workload;
 
-    private final long size;
+    private final int numBinaries;
 
     private final int numThreads;
 
-    private final ExecutorService executor;
+    private ExecutorService executor;
 
     // Rest client used for startup and teardown operations
     private final FedoraRestClient fedora;
 
-    private FileOutputStream logOut;
+    private OutputStream logOut;
+
+    private String requestLogPath;
+
+    private long reportInterval;
+
+    private String reportCsvPath;
 
     private final TransactionStateManager txManager;
 
@@ -67,6 +127,51 @@ public class FCRepoBenchRunner {
 
     private final boolean purge;
 
+    private double rate;
+
+    private long timeLimit;
+
+    private long warmup;
+
+    private long actionsMeasured;
+
+    private int preparationThreads = 1;
+
+    private long payloadSeed;
+
+    private boolean verify;
+
+    private Engine engine = Engine.THREADS;
+
+    private String pidPrefix;
+
+    private int firstPid;
+
+    private PhaseListener phaseListener;
+
+    private String keyDistribution;
+
+    private SizeDistribution sizes;
+
+    private BenchCoordinator coordinator;
+
+    private Map<List<Step>, PidPool> sharedPools;
+
+    private long startedAt;
+
+    private int clusterSizeBefore = -1;
+
+    private int clusterSizeAfter = -1;
+
+    private Map<String, String> options = Collections.emptyMap();
+
+    private String jsonReportPath;
+
+    /* the number of actions completed in every second of the measurement */
+    private long[] throughputSamples = new long[0];
+
+    private String csvReportPath;
+
     public FCRepoBenchRunner(final FedoraVersion version, final URI fedoraUri, final Action action,
             final int numBinaries, final long size, final int numThreads, final String logpath,
             final TransactionMode txMode, final int actionsPerTx, final int parallelTx, final boolean preparationAsTx,
@@ -76,7 +181,7 @@ public class FCRepoBenchRunner {
         this.fedoraUri = fedoraUri;
         this.action = action;
         this.numBinaries = numBinaries;
-        this.size = size;
+        this.sizes = SizeDistribution.fixed(size);
         this.numThreads = numThreads;
         this.executor = Executors.newFixedThreadPool(numThreads);
         this.propertyAction = propertyAction;
@@ -108,7 +213,7 @@ public class FCRepoBenchRunner {
         this.fedora = FedoraRestClient.createClient(fedoraUri, version, prepTxManager);
 
         try {
-            this.logOut = new FileOutputStream(logpath);
+            this.logOut = new BufferedOutputStream(new FileOutputStream(logpath));
         } catch (final FileNotFoundException e) {
             this.logOut = null;
             LOG.warn("Unable to open log file at {}. No log output will be generated", logpath);
@@ -133,130 +238,694 @@ public class FCRepoBenchRunner {
                 break;
             }
         }
+        this.workload = Workload.single(this.action);
     }
 
     public void runBenchmark() throws IOException {
+        if (warmup > 0 && timeLimit == 0) {
+            /* the objects prepared for a fixed number of actions would be used up by the warmup */
+            for (final Action a : workload.getActions()) {
+                if (CONSUMING_ACTIONS.contains(a)) {
+                    throw new IllegalArgumentException("A warmup of " + a + " uses up the objects prepared for " +
+                            "the measured actions and requires a run with a duration");
+                }
+            }
+        }
         runTime = System.currentTimeMillis();
+        startedAt = runTime;
 
         this.logParameters();
+        if (coordinator != null) {
+            this.runOnAgents();
+        } else {
+            this.runLocally();
+        }
+
+        runTime = System.currentTimeMillis() - runTime;
+
+        this.logResults();
+        this.writeReports();
+    }
+
+    private void runLocally() throws IOException {
         /*
          * first create the required top level objects so their creation won't
          * affect the pure action performance
          */
-        final List<String> pids = prepareObjects();
-
-        LOG.info("scheduling {} {} actions", numBinaries, this.action.toString());
+        final Map<Action, PidPool> pools = prepareObjects();
+        final RequestLog requestLog;
+        try {
+            if (phaseListener != null) {
+                phaseListener.beforeMeasurement();
+            }
+            requestLog = requestLogPath == null ? null : new RequestLog(requestLogPath);
+        } catch (final IOException e) {
+            /* the run will never start, so do not leave the prepared objects behind */
+            if (purge) {
+                this.purgeObjects(pools);
+            }
+            throw e;
+        }
 
-        /* schedule all the action workers for execution */
-        LOG.info("Starting clock now...");
-        testTime = System.currentTimeMillis();
+        LOG.info("scheduling {} {} actions", timeLimit > 0 ? "time-boxed" : numBinaries, workload);
 
-        final List<Future<BenchToolResult>> futures;
-        if (txManager == null) {
-            futures = getActionFutures(pids);
-        } else {
-            futures = getTransactionalActionFutures(pids);
+        /* the workers' results are retrieved while the actions are scheduled */
+        final ResultCollector collector = new ResultCollector(requestLog);
+        collector.start();
+        final IntervalReporter reporter =
+                reportInterval > 0 ? new IntervalReporter(stats, reportInterval, reportCsvPath) : null;
+        if (reporter != null) {
+            reporter.start();
         }
-
-        /* retrieve the workers' results */
         try {
-            this.fetchResults(futures);
-        } catch (InterruptedException | ExecutionException | IOException e) {
-            LOG.error("Error while getting results from worker threads", e);
+            this.scheduleActions(pools, collector);
+        } catch (InterruptedException | IOException e) {
+            LOG.error("Error while scheduling the actions", e);
+        } finally {
+            collector.finish();
+        }
+        try {
+            /* the transactions are finalized after their last action, so wait for the commits to complete */
+            this.executor.shutdown();
+            this.executor.awaitTermination(1, TimeUnit.HOURS);
+        } catch (final InterruptedException e) {
+            LOG.error("Interrupted while waiting for the transactions to complete", e);
         } finally {
             this.executor.shutdown();
+            if (reporter != null) {
+                reporter.stop();
+            }
         }
 
         testTime = System.currentTimeMillis() - testTime;
         LOG.info("Stopping clock.");
-        LOG.info("Completed {} {} action(s) executed in {} ms {}", new Object[] { this.numBinaries, action, testTime,
+        LOG.info("Completed {} {} action(s) executed in {} ms {}", new Object[] { actionsMeasured, workload, testTime,
             txManager == null ? "" : "(includes tx create/commit)" });
+        if (phaseListener != null) {
+            phaseListener.afterMeasurement();
+        }
 
         /* delete all the created objects and datastreams from the repository */
         if (purge) {
             if (txManager == null || txManager.getMode() != ROLLBACK) {
-                this.purgeObjects(pids);
+                this.purgeObjects(pools);
             }
         }
-
-        runTime = System.currentTimeMillis() - runTime;
-
-        this.logResults();
     }
 
-    private List<Future<BenchToolResult>> getActionFutures(final List<String> pids) throws IOException {
-        final List<Future<BenchToolResult>> futures = new ArrayList<>();
+    private void runOnAgents() throws IOException {
+        this.executor.shutdown();
+        coordinator.run(numBinaries, rate, stats);
+        actionsMeasured = coordinator.getActionsMeasured();
+        testTime = coordinator.getTestTime();
+        LOG.info("Completed {} {} action(s) on {} agent(s) in {} ms", new Object[] {actionsMeasured, workload,
+                coordinator.getNumAgents(), testTime});
+    }
 
+    /**
+     * Schedule the action workers for execution. In a closed loop run at most
+     * one action per thread is submitted at a time, so that the warmup and
+     * measurement phases are bounded by the time the actions are actually
+     * started. In an open loop run the actions are submitted according to the
+     * arrival schedule, up to {@link #MAX_QUEUED_ACTIONS} ahead of the
+     * threads. Every action is drawn from the workload and performed on the
+     * next object of the pool prepared for it. The results of the measured
+     * actions are handed to the collector, which blocks the scheduling if it
+     * falls behind, so the memory used does not depend on the number of
+     * actions.
+     */
+    private void scheduleActions(final Map<Action, PidPool> pools, final ResultCollector collector)
+            throws IOException, InterruptedException {
         final FedoraRestClient restClient = FedoraRestClient.createClient(fedoraUri, version, txManager);
+        restClient.setPayloadSeed(payloadSeed);
+        restClient.setVerify(verify);
+        final AsyncActionEngine asyncEngine = engine == Engine.ASYNC ? new AsyncActionEngine(restClient) : null;
+        final ArrivalSchedule schedule = createArrivalSchedule();
+        final Semaphore permits = new Semaphore(schedule == null ? numThreads : numThreads + MAX_QUEUED_ACTIONS);
+        /*
+         * virtual threads and async requests are started right away, so open
+         * loop runs have to bound their concurrency separately
+         */
+        final Semaphore inFlight = schedule != null && engine != Engine.THREADS ? new Semaphore(numThreads) : null;
 
-        for (final String pid : pids) {
-            futures.add(executor.submit(new ActionWorker(action, fedoraUri, pid, size, restClient, null)));
+        if (warmup > 0) {
+            LOG.info("Warming up for {} second(s)...", TimeUnit.MILLISECONDS.toSeconds(warmup));
+        } else {
+            LOG.info("Starting clock now...");
         }
+        testTime = System.currentTimeMillis();
+        final long warmupEnd = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(warmup);
+        final long measurementEnd = warmupEnd + TimeUnit.MILLISECONDS.toNanos(timeLimit);
+        boolean warm = warmup > 0;
+
+        for (int i = 0;; i++) {
+            final Action next = workload.next();
+            final PidPool pool = pools.get(next);
+            final String pid = pool.next();
+            if (pid == null) {
+                if (timeLimit > 0 || actionsMeasured < numBinaries) {
+                    LOG.warn("All {} objects prepared for {} have been used, ending the run early", pool.size(),
+                            next);
+                }
+                break;
+            }
+            final long intendedStart = nextIntendedStart(schedule);
+            final long now = schedule == null ? System.nanoTime() : intendedStart;
+            if (warm && now - warmupEnd >= 0) {
+                warm = false;
+                LOG.info("Warmup finished after {} action(s). Starting clock now...", i);
+                testTime = System.currentTimeMillis();
+                if (txManager != null) {
+                    txManager.getProfiler().reset();
+                }
+            }
+            if (!warm && (timeLimit > 0 ? now - measurementEnd >= 0 : actionsMeasured >= numBinaries)) {
+                break;
+            }
 
-        return futures;
-    }
-
-    private List<Future<BenchToolResult>> getTransactionalActionFutures(final List<String> pids) throws IOException {
-        final List<Future<BenchToolResult>> futures = new ArrayList<>();
-
-        final FedoraRestClient restClient = FedoraRestClient.createClient(fedoraUri, version, txManager);
-
-        for (final String pid : pids) {
-            final TransactionState tx = txManager.getTransaction();
+            /* actions executed during the warmup are left out of the statistics */
+            final BenchToolStatistics actionStats = warm ? null : stats;
+            final TransactionState tx = txManager == null ? null : txManager.getTransaction();
 
             // Create the transaction if it has not been initialized yet
-            if (!tx.actionsAssigned()) {
+            if (tx != null && !tx.actionsAssigned()) {
                 LOG.debug("Adding create tx worker");
-                futures.add(executor.submit(new ActionWorker(Action.CREATE_TX, fedoraUri, null, 0, restClient, tx)));
+                executor.submit(new ActionWorker(Action.CREATE_TX, fedoraUri, null, 0, restClient, tx, actionStats));
+            }
+            if (tx != null) {
+                tx.assignAction();
             }
-            tx.assignAction();
 
-            futures.add(executor.submit(new ActionWorker(action, fedoraUri, pid, size, restClient, tx)));
+            final Future<BenchToolResult> future;
+            if (asyncEngine != null) {
+                future = asyncEngine.submit(next, pid, sizes.sizeOf(pid), actionStats, intendedStart, permits,
+                        inFlight);
+            } else {
+                future =
+                        submit(new ActionWorker(next, fedoraUri, pid, sizes.sizeOf(pid), restClient, tx, actionStats,
+                                intendedStart), tx, permits, inFlight);
+            }
+            if (!warm) {
+                collector.add(next, System.currentTimeMillis(), intendedStart, future);
+                actionsMeasured++;
+            }
 
-            // Finalize the transaction if it is complete
-            if (tx.allActionsAssigned()) {
-                futures.add(executor.submit(new ActionWorker(txManager.getFinalizeAction(), fedoraUri, null, 0,
-                        restClient, tx)));
+            // Finalize the transaction once its last action has completed
+            if (tx != null && tx.allActionsAssigned()) {
+                finalizeTransaction(tx, restClient, actionStats);
             }
         }
 
         // Finalize any lingering incomplete transactions
-        for (final TransactionState tx : txManager.getTransactions()) {
-            if (!tx.allActionsAssigned()) {
-                tx.setMaxActions(tx.getActionsAssigned());
-                futures.add(executor.submit(new ActionWorker(txManager.getFinalizeAction(), fedoraUri, null, 0,
-                        restClient, tx)));
+        if (txManager != null) {
+            for (final TransactionState tx : txManager.getTransactions()) {
+                if (!tx.allActionsAssigned()) {
+                    tx.setMaxActions(tx.getActionsAssigned());
+                    finalizeTransaction(tx, restClient, stats);
+                }
+            }
+        }
+    }
+
+    /**
+     * Submit an action for execution. An action which is part of a
+     * transaction is queued by the transaction until it has been created
+     * instead of occupying a thread while waiting.
+     */
+    private Future<BenchToolResult> submit(final ActionWorker worker, final TransactionState tx,
+            final Semaphore permits, final Semaphore inFlight) throws InterruptedException {
+        final Callable<BenchToolResult> callable;
+        if (inFlight != null) {
+            callable = new Callable<BenchToolResult>() {
+
+                @Override
+                public BenchToolResult call() throws Exception {
+                    inFlight.acquire();
+                    try {
+                        return worker.call();
+                    } finally {
+                        inFlight.release();
+                    }
+                }
+            };
+        } else {
+            callable = worker;
+        }
+        if (permits != null) {
+            permits.acquire();
+        }
+        final FutureTask<BenchToolResult> task = new FutureTask<BenchToolResult>(callable) {
+
+            @Override
+            protected void done() {
+                if (permits != null) {
+                    permits.release();
+                }
+            }
+        };
+        if (tx == null) {
+            executor.execute(task);
+        } else {
+            tx.whenCreated(new Runnable() {
+
+                @Override
+                public void run() {
+                    executor.execute(task);
+                }
+            });
+        }
+        return task;
+    }
+
+    /**
+     * Commit or roll back the transaction as soon as all of its actions have
+     * completed
+     */
+    private void finalizeTransaction(final TransactionState tx, final FedoraRestClient restClient,
+            final BenchToolStatistics actionStats) {
+        final ActionWorker finalizer =
+                new ActionWorker(txManager.getFinalizeAction(), fedoraUri, null, 0, restClient, tx, actionStats);
+        tx.whenAllActionsCompleted(new Runnable() {
+
+            @Override
+            public void run() {
+                executor.submit(finalizer);
+            }
+        });
+    }
+
+    private ArrivalSchedule createArrivalSchedule() {
+        if (rate > 0) {
+            return new ArrivalSchedule(rate);
+        }
+        return null;
+    }
+
+    private static long nextIntendedStart(final ArrivalSchedule schedule) throws InterruptedException {
+        if (schedule == null) {
+            return ActionWorker.UNSCHEDULED;
+        }
+        return schedule.awaitNext();
+    }
+
+    /**
+     * Run the benchmark as an open loop, issuing actions at a constant rate
+     * independent of the response times of Fedora. Latencies are measured
+     * from the time an action was scheduled to start.
+     *
+     * @param rate the number of actions per second, values <= 0 run the
+     *        benchmark as a closed loop
+     */
+    public void setRate(final double rate) {
+        this.rate = rate;
+    }
+
+    /**
+     * Run the benchmark for a fixed amount of time instead of a fixed number
+     * of actions. The prepared objects are reused in a round robin fashion,
+     * unless the action can only be performed once per object.
+     *
+     * @param timeLimit the length of the measurement phase in milliseconds,
+     *        values <= 0 run exactly the configured number of actions
+     */
+    public void setDuration(final long timeLimit) {
+        this.timeLimit = timeLimit;
+    }
+
+    /**
+     * Perform actions for a period of time before starting the measurement
+     * so that the JIT of client and server and the connection pool are warmed
+     * up. Actions executed during the warmup are left out of the statistics.
+     *
+     * @param warmup the length of the warmup phase in milliseconds
+     */
+    public void setWarmup(final long warmup) {
+        this.warmup = warmup;
+    }
+
+    /**
+     * @param preparationThreads the number of threads used for preparing and
+     *        purging the objects
+     */
+    public void setPreparationThreads(final int preparationThreads) {
+        this.preparationThreads = preparationThreads;
+    }
+
+    /**
+     * @param payloadSeed the seed from which the content of every binary is
+     *        derived
+     */
+    public void setPayloadSeed(final long payloadSeed) {
+        this.payloadSeed = payloadSeed;
+        this.fedora.setPayloadSeed(payloadSeed);
+    }
+
+    /**
+     * Verify the content of every retrieved binary against the payload it
+     * has been created with and count the mismatches
+     *
+     * @param verify whether to verify retrieved binaries
+     */
+    public void setVerify(final boolean verify) {
+        this.verify = verify;
+    }
+
+    /**
+     * @param engine the engine executing the actions. The async engine does
+     *        not support transactions, the virtual engine requires Java 21.
+     */
+    public void setEngine(final Engine engine) {
+        if (engine == Engine.ASYNC && txManager != null) {
+            throw new IllegalArgumentException("Transactions are not supported by the async engine");
+        }
+        if (engine == Engine.VIRTUAL) {
+            final ExecutorService virtual = newVirtualThreadExecutor();
+            this.executor.shutdown();
+            this.executor = virtual;
+        }
+        this.engine = engine;
+    }
+
+    /**
+     * Perform a weighted mix of actions instead of a single one. The objects
+     * are prepared for every action of the mix.
+     *
+     * @param workload the actions to perform and their weights
+     */
+    public void setWorkload(final Workload workload) {
+        if (version == FedoraVersion.FCREPO3) {
+            for (final Action a : workload.getActions()) {
+                if (!FCREPO3_ACTIONS.contains(a)) {
+                    throw new IllegalArgumentException("The action " + a + " is not supported by Fedora 3");
+                }
             }
         }
+        this.workload = workload;
+    }
+
+    /**
+     * Choose the objects for actions which can be performed more than once
+     * per object from the given distribution instead of using every object in
+     * turn. Actions which consume their objects always use them in turn.
+     *
+     * @param keyDistribution the key distribution as accepted by
+     *        {@link KeyChooser#create(String, int)}
+     */
+    public void setKeyDistribution(final String keyDistribution) {
+        /* fail early on an invalid distribution */
+        KeyChooser.create(keyDistribution, 1);
+        this.keyDistribution = keyDistribution;
+    }
+
+    /**
+     * Draw the size of every binary from a distribution instead of using the
+     * same size for all binaries
+     *
+     * @param sizes the distribution of the binaries' sizes
+     */
+    public void setSizeDistribution(final SizeDistribution sizes) {
+        this.sizes = sizes;
+    }
+
+    /**
+     * Derive the pids from a prefix and a running number instead of a random
+     * prefix, so that several agents can work on disjoint sets of pids
+     *
+     * @param pidPrefix the prefix shared by all pids
+     * @param firstPid the number of the first action of this runner, which
+     *        keeps the pids unique among all runners sharing the prefix
+     */
+    public void setPidRange(final String pidPrefix, final int firstPid) {
+        this.pidPrefix = pidPrefix;
+        this.firstPid = firstPid;
+    }
 
-        return futures;
+    /**
+     * @param phaseListener the listener notified before and after the
+     *        measurement phase
+     */
+    public void setPhaseListener(final PhaseListener phaseListener) {
+        this.phaseListener = phaseListener;
+    }
+
+    /**
+     * Distribute the run to remote agents instead of generating the load
+     * locally. The results of the agents are merged into the statistics of
+     * this runner.
+     *
+     * @param coordinator the coordinator of the agents
+     */
+    public void setCoordinator(final BenchCoordinator coordinator) {
+        this.coordinator = coordinator;
+    }
+
+    /**
+     * Keep the objects prepared for actions which leave them in their
+     * prepared state in the given map instead of purging them after the run,
+     * and reuse the objects found in it instead of preparing new ones. This
+     * lets the runs of a sweep share one prepared dataset.
+     *
+     * @param sharedPools the pools of prepared objects by their preparation
+     *        steps, purged using {@link #purgeSharedPools()}
+     */
+    public void setSharedPools(final Map<List<Step>, PidPool> sharedPools) {
+        this.sharedPools = sharedPools;
+    }
+
+    /**
+     * Purge the objects of the shared pools, unless purging has been disabled
+     */
+    public void purgeSharedPools() throws IOException {
+        if (purge && sharedPools != null && !sharedPools.isEmpty()) {
+            this.purgeObjects(sharedPools.values());
+        }
+        if (sharedPools != null) {
+            sharedPools.clear();
+        }
+    }
+
+    /**
+     * Write the time, action, status, duration and size of every measured
+     * request to a binary log, see {@link RequestLog}
+     *
+     * @param requestLogPath the path of the log
+     */
+    public void setRequestLog(final String requestLogPath) {
+        this.requestLogPath = requestLogPath;
+    }
+
+    /**
+     * Report the throughput, errors, actions in flight and latencies every
+     * interval while the actions are performed, see {@link IntervalReporter}
+     *
+     * @param reportInterval the interval in milliseconds, 0 to disable
+     * @param reportCsvPath the CSV file to append the intervals to, or null
+     */
+    public void setIntervalReport(final long reportInterval, final String reportCsvPath) {
+        this.reportInterval = reportInterval;
+        this.reportCsvPath = reportCsvPath;
+    }
+
+    /**
+     * Write a JSON report and append a CSV row describing the run after it
+     * has completed, see {@link RunReport}
+     *
+     * @param jsonReportPath the path of the JSON report, or null
+     * @param csvReportPath the path of the CSV file, or null
+     */
+    public void setReports(final String jsonReportPath, final String csvReportPath) {
+        this.jsonReportPath = jsonReportPath;
+        this.csvReportPath = csvReportPath;
+    }
+
+    /**
+     * @param options the command line options of the run by their long names,
+     *        recorded in the reports
+     */
+    public void setOptions(final Map<String, String> options) {
+        this.options = options;
+    }
+
+    Map<String, String> getOptions() {
+        return options;
+    }
+
+    /**
+     * @return the effective parameters of the run, including the defaults
+     */
+    Map<String, Object> getParameters() {
+        final Map<String, Object> parameters = new LinkedHashMap<>();
+        parameters.put("fedora_version", version.name());
+        parameters.put("fedora_url", fedoraUri.toString());
+        parameters.put("workload", workload.toString());
+        parameters.put("size", sizes.describe());
+        parameters.put("num_actions", numBinaries);
+        parameters.put("threads", numThreads);
+        parameters.put("agents", coordinator == null ? 0 : coordinator.getNumAgents());
+        parameters.put("engine", engine.name());
+        parameters.put("rate", rate);
+        parameters.put("duration_s", TimeUnit.MILLISECONDS.toSeconds(timeLimit));
+        parameters.put("warmup_s", TimeUnit.MILLISECONDS.toSeconds(warmup));
+        parameters.put("key_distribution", keyDistribution);
+        parameters.put("preparation_threads", preparationThreads);
+        parameters.put("seed", payloadSeed);
+        parameters.put("verify", verify);
+        parameters.put("purge", purge);
+        parameters.put("tx_mode", txManager == null ? TransactionMode.NONE.name() : txManager.getMode().name());
+        parameters.put("actions_per_tx", txManager == null ? 0 : txManager.getActionsPerTx());
+        parameters.put("parallel_tx", txManager == null ? 0 : txManager.getParallelTx());
+        return parameters;
+    }
+
+    /**
+     * @return the time the run has been started at in milliseconds since the
+     *         epoch
+     */
+    long getStartedAt() {
+        return startedAt;
+    }
+
+    /**
+     * @return the length of the whole run including the preparation in
+     *         milliseconds
+     */
+    long getRunTime() {
+        return runTime;
+    }
+
+    /**
+     * @return the number of nodes of the Fedora cluster before the run, or -1
+     *         if unknown
+     */
+    int getClusterSizeBefore() {
+        return clusterSizeBefore;
+    }
+
+    /**
+     * @return the number of nodes of the Fedora cluster after the run, or -1
+     *         if unknown
+     */
+    int getClusterSizeAfter() {
+        return clusterSizeAfter;
+    }
+
+    /**
+     * @return the number of actions completed in every second of the
+     *         measurement, the last second is usually incomplete. Empty for
+     *         runs distributed to agents.
+     */
+    long[] getThroughputSamples() {
+        return throughputSamples;
+    }
+
+    TransactionStateManager getTransactionManager() {
+        return txManager;
+    }
+
+    /**
+     * @return the throughput of a single thread in MB/sec, calculated from the
+     *         service times
+     */
+    float getThroughputPerThread() {
+        return stats.getBytes() * 1000f / (1024f * 1024f * stats.getDuration());
+    }
+
+    /**
+     * @return the throughput of all threads in MB/sec
+     */
+    float getThroughput() {
+        return getThroughputPerThread() * getTotalThreads();
+    }
+
+    private int getTotalThreads() {
+        return coordinator == null ? numThreads : numThreads * coordinator.getNumAgents();
+    }
+
+    /**
+     * @return the statistics of the actions measured so far
+     */
+    public BenchToolStatistics getStatistics() {
+        return stats;
+    }
+
+    /**
+     * @return the number of actions measured
+     */
+    public long getActionsMeasured() {
+        return actionsMeasured;
+    }
+
+    /**
+     * @return the length of the measurement phase in milliseconds
+     */
+    public long getTestTime() {
+        return testTime;
+    }
+
+    /**
+     * @return the profiler of the run's transactions, or null if the actions
+     *         are not performed in transactions
+     */
+    public TransactionProfiler getTransactionProfiler() {
+        return txManager == null ? null : txManager.getProfiler();
+    }
+
+    /**
+     * Virtual threads are only available on Java 21 and later, while the tool
+     * itself is built for older versions, so the executor is looked up at
+     * runtime.
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (final NoSuchMethodException e) {
+            throw new IllegalArgumentException("Virtual threads require Java 21 or later, this is Java " +
+                    System.getProperty("java.version"));
+        } catch (final ReflectiveOperationException e) {
+            throw new IllegalStateException("Unable to create a virtual thread executor", e);
+        }
     }
 
     private void logParameters() throws IOException {
         LOG.info("Running {} {} action(s) against {} with a binary size of {} using {} thread(s)", new Object[] {
-                numBinaries, action.name(), version.name(), convertSize(size), numThreads});
+                numBinaries, workload, version.name(), sizes.describe(), numThreads});
+        if (coordinator != null) {
+            LOG.info("Distributing the run to {} agent(s) using {} thread(s) each", coordinator.getNumAgents(),
+                    numThreads);
+        }
+        if (engine == Engine.ASYNC) {
+            LOG.info("Using the async engine with up to {} request(s) in flight", numThreads);
+        } else if (engine == Engine.VIRTUAL) {
+            LOG.info("Using virtual threads with up to {} action(s) in flight", numThreads);
+        }
+        if (timeLimit > 0) {
+            LOG.info("Measuring for {} second(s) after a warmup of {} second(s)", TimeUnit.MILLISECONDS
+                    .toSeconds(timeLimit), TimeUnit.MILLISECONDS.toSeconds(warmup));
+        }
+        if (keyDistribution != null) {
+            LOG.info("Choosing the objects using a {} key distribution", keyDistribution);
+        }
+        if (rate > 0) {
+            LOG.info("Issuing actions open loop at a rate of {} action(s) per second", FORMAT.format(rate));
+        }
         if (version == FedoraVersion.FCREPO4) {
-            LOG.info("The Fedora cluster has {} node(s) before the benchmark", this.fedora.getClusterSize());
+            clusterSizeBefore = this.fedora.getClusterSize();
+            LOG.info("The Fedora cluster has {} node(s) before the benchmark", clusterSizeBefore);
         }
     }
 
     private void logResults() throws IOException {
-        long duration = 0;
-        long numBytes = 0;
-        for (final BenchToolResult res : results) {
-            duration = duration + res.getDuration();
-            numBytes = numBytes + res.getSize();
-        }
-        float throughputPerThread = 0f;
-        throughputPerThread = size * numBinaries * 1000f / (1024f * 1024f * duration);
+        final long duration = stats.getDuration();
+        final float throughputPerThread = getThroughputPerThread();
 
         if (version == FedoraVersion.FCREPO4) {
-            LOG.info("The Fedora cluster has {} node(s) after the benchmark", this.fedora.getClusterSize());
+            clusterSizeAfter = this.fedora.getClusterSize();
+            LOG.info("The Fedora cluster has {} node(s) after the benchmark", clusterSizeAfter);
         }
-        if (numThreads == 1) {
+        if (getTotalThreads() == 1) {
             LOG.info("Throughput was {} MB/sec", FORMAT.format(throughputPerThread));
         } else {
-            LOG.info("Throughput was {} MB/sec", FORMAT.format(throughputPerThread * numThreads));
+            LOG.info("Throughput was {} MB/sec", FORMAT.format(getThroughput()));
             LOG.info("Throughput per thread was {} MB/sec", FORMAT.format(throughputPerThread));
         }
 
@@ -264,77 +933,190 @@ public class FCRepoBenchRunner {
             LOG.info("Time spent creating transactions {}ms", txManager.getCreateTime());
             LOG.info("Time spent committing transactions {}ms", txManager.getCommitTime());
             LOG.info("Condensed results:");
-            LOG.info("{} {} {} {} {} {} {} {} {} {} {}", new Object[] {numBinaries, size, numThreads, action, duration,
-                    throughputPerThread, "tx", txManager.getActionsPerTx(), txManager.getParallelTx(),
+            LOG.info("{} {} {} {} {} {} {} {} {} {} {}", new Object[] {actionsMeasured, sizes, numThreads, workload,
+                    duration, throughputPerThread, "tx", txManager.getActionsPerTx(), txManager.getParallelTx(),
                     txManager.getCreateTime(), txManager.getCommitTime()});
         } else {
             LOG.info("Condensed results:");
-            LOG.info("{} {} {} {} {} {} {}", new Object[] { numBinaries, size, numThreads, action, testTime,
+            LOG.info("{} {} {} {} {} {} {}", new Object[] { actionsMeasured, sizes, numThreads, workload, testTime,
                     throughputPerThread, "no-tx"});
         }
 
+        if (txManager != null) {
+            final TransactionProfiler profiler = txManager.getProfiler();
+            logPercentiles("Transaction create latency", profiler.getCreateHistogram());
+            logPercentiles("Transaction open time", profiler.getOpenTimeHistogram());
+            logPercentiles("Transactional action latency", profiler.getActionHistogram());
+            logPercentiles("Transaction " + txManager.getMode().name().toLowerCase() + " latency", profiler
+                    .getFinishHistogram());
+            final Histogram txSize = profiler.getSizeHistogram();
+            LOG.info("Actions per transaction: mean={} min={} max={} ({} transactions)", new Object[] {
+                    FORMAT.format(txSize.getMean()), txSize.getMinValue(), txSize.getMaxValue(), txSize
+                            .getTotalCount()});
+        }
+
+        for (final ActionStatistics actionStats : stats.getRecorded()) {
+            logPercentiles(actionStats.getAction() + " latency", actionStats.getHistogram());
+            if (rate > 0) {
+                logPercentiles(actionStats.getAction() + " service time", actionStats.getServiceTimeHistogram());
+            }
+            final Histogram firstByte = actionStats.getTimeToFirstByteHistogram();
+            if (firstByte.getTotalCount() > 0) {
+                logPercentiles(actionStats.getAction() + " time to first byte", firstByte);
+            }
+            if (verify) {
+                LOG.info("{}: {} response(s) did not match the expected payload", actionStats.getAction(),
+                        actionStats.getCorruptions());
+            }
+        }
+        if (rate > 0) {
+            LOG.info("Offered rate was {} action(s)/sec, achieved rate was {} action(s)/sec", FORMAT.format(rate),
+                    FORMAT.format(actionsMeasured * 1000f / testTime));
+        }
+
         LOG.info("All operations completed in {} ms", runTime);
 
     }
 
-    private List<BenchToolResult> fetchResults(final List<Future<BenchToolResult>> futures)
-            throws InterruptedException, ExecutionException, IOException {
-        int count = 0;
-        for (final Future<BenchToolResult> f : futures) {
-            final BenchToolResult res = f.get();
-            LOG.debug("{} of {} actions finished", ++count, numBinaries);
-            if (logOut != null) {
-                logOut.write((res.getDuration() + "\n").getBytes());
+    private void writeReports() {
+        if (jsonReportPath == null && csvReportPath == null) {
+            return;
+        }
+        final RunReport report = new RunReport(this);
+        /* the results have been logged already, so a report which cannot be written does not fail the run */
+        if (jsonReportPath != null) {
+            try {
+                report.writeJson(jsonReportPath);
+            } catch (final IOException e) {
+                LOG.error("Unable to write the JSON report to {}", jsonReportPath, e);
+            }
+        }
+        if (csvReportPath != null) {
+            try {
+                report.appendCsv(csvReportPath);
+            } catch (final IOException e) {
+                LOG.error("Unable to append the CSV report to {}", csvReportPath, e);
             }
-            results.add(res);
         }
-        return results;
     }
 
-    private void purgeObjects(final List<String> pids) throws IOException {
-        LOG.info("purging {} objects and datastreams", numBinaries);
-
-        final TransactionState tx = startPreparationTx();
+    private static void logPercentiles(final String name, final Histogram h) {
+        LOG.info("{}: p50={}ms p90={}ms p99={}ms p99.9={}ms max={}ms ({} actions)", new Object[] {name,
+                h.getValueAtPercentile(50d), h.getValueAtPercentile(90d), h.getValueAtPercentile(99d),
+                h.getValueAtPercentile(99.9d), h.getMaxValue(), h.getTotalCount()});
+    }
 
-        fedora.purgeObjects(pids, tx);
 
-        commitPreparationTx(tx);
+    private void purgeObjects(final Map<Action, PidPool> pools) throws IOException {
+        final Set<PidPool> purged = new LinkedHashSet<>(pools.values());
+        if (sharedPools != null) {
+            /* the shared objects are purged after the last run using them */
+            purged.removeAll(sharedPools.values());
+        }
+        if (!purged.isEmpty()) {
+            this.purgeObjects(purged);
+        }
     }
 
-    private List<String> prepareObjects() throws IOException {
-        final List<String> pids = new ArrayList<>();
-        LOG.info("preparing {} objects", numBinaries);
-        for (int i = 0; i < numBinaries; i++) {
-            pids.add(UUID.randomUUID().toString());
+    private void purgeObjects(final Collection<PidPool> pools) throws IOException {
+        long numPids = 0;
+        for (final PidPool pool : pools) {
+            numPids += pool.size();
         }
+        LOG.info("purging {} objects and datastreams", numPids);
 
         final TransactionState tx = startPreparationTx();
 
-        final long duration = fedora.createObjects(pids, tx);
-        LOG.info("creating {} objects took {} ms", pids.size(), duration);
-        if (this.action == Action.UPDATE || this.action == Action.READ || this.action == Action.DELETE) {
-            LOG.info("preparing {} datastreams of size {} for {}",
-                    new Object[] {numBinaries, convertSize(size), action});
-            // add datastreams in preparation which can be manipulated
-            fedora.createDatastreams(pids, size, tx);
+        for (final PidPool pool : pools) {
+            new PreparationRunner(fedora, preparationThreads, sizes).run("purge", pool.getPids(), tx, Arrays
+                    .asList(Step.PURGE_OBJECT));
         }
-        if (this.action == Action.SPARQL_SELECT) {
-            LOG.info("preparing {} sparql records for SPARQL_SELECT action", numBinaries);
-            for (final String pid : pids) {
-                fedora.sparqlInsert(pid, tx);
+
+        commitPreparationTx(tx);
+    }
+
+    /**
+     * Prepare the objects for every action of the workload. Actions which
+     * leave the objects in their prepared state share the objects if they
+     * need the same preparation, e.g. reads and updates of datastreams, so
+     * that they contend for the same objects just like in production.
+     */
+    private Map<Action, PidPool> prepareObjects() throws IOException {
+        final Map<Action, PidPool> pools = new EnumMap<>(Action.class);
+        final Map<List<Step>, PidPool> sharedPools =
+                this.sharedPools == null ? new HashMap<List<Step>, PidPool>() : this.sharedPools;
+        final Set<PidPool> prepared = new HashSet<>(sharedPools.values());
+        /* the pids of every pool share a prefix which is unique to the run and the pool */
+        final String runPrefix = pidPrefix == null ? UUID.randomUUID().toString() : pidPrefix + "-" + firstPid;
+        int numPools = 0;
+        for (final Action a : workload.getActions()) {
+            final int count = Math.max(workload.getMaxCount(a, numBinaries), 1);
+            final List<Step> steps = getPreparationSteps(a);
+            final boolean consuming = CONSUMING_ACTIONS.contains(a);
+            PidPool pool = consuming ? null : sharedPools.get(steps);
+            if (prepared.contains(pool)) {
+                LOG.info("reusing {} prepared objects for {}", pool.size(), a);
+                pools.put(a, pool);
+                continue;
+            }
+            if (pool == null) {
+                pool = new PidPool(steps, consuming, runPrefix + "-" + numPools++);
+                if (!consuming) {
+                    sharedPools.put(steps, pool);
+                }
+            }
+            pool.add(count);
+            pools.put(a, pool);
+            if (steps.contains(Step.CREATE_DATASTREAM)) {
+                LOG.info("preparing {} datastreams of size {} for {}", new Object[] {count, sizes.describe(), a});
+            } else if (steps.contains(Step.CREATE_PROPERTY)) {
+                LOG.info("preparing {} properties for {}", count, a);
+            } else {
+                LOG.info("preparing {} objects for {}", count, a);
             }
         }
 
-        if (this.action == Action.UPDATE_PROPERTY || this.action == Action.READ_PROPERTY ||
-                this.action == Action.DELETE_PROPERTY) {
-            LOG.info("preparing {} properties for {}", numBinaries, action);
-            // add properties in preparation which can be manipulated
-            fedora.createProperties(pids, tx);
+        if (keyDistribution != null) {
+            for (final PidPool pool : new LinkedHashSet<>(pools.values())) {
+                pool.setKeyDistribution(keyDistribution);
+            }
+        }
+
+        final TransactionState tx = startPreparationTx();
+
+        for (final PidPool pool : new LinkedHashSet<>(pools.values())) {
+            if (!prepared.contains(pool)) {
+                new PreparationRunner(fedora, preparationThreads, sizes).run("preparation", pool.getPids(), tx,
+                        pool.getSteps());
+            }
         }
 
         commitPreparationTx(tx);
 
-        return pids;
+        return pools;
+    }
+
+    private static List<Step> getPreparationSteps(final Action action) {
+        final List<Step> steps = new ArrayList<>();
+        steps.add(Step.CREATE_OBJECT);
+        switch (action) {
+        case UPDATE:
+        case READ:
+        case DELETE:
+            // add datastreams in preparation which can be manipulated
+            steps.add(Step.CREATE_DATASTREAM);
+            break;
+        case SPARQL_SELECT:
+        case UPDATE_PROPERTY:
+        case READ_PROPERTY:
+        case DELETE_PROPERTY:
+            // add properties in preparation which can be manipulated
+            steps.add(Step.CREATE_PROPERTY);
+            break;
+        default:
+            break;
+        }
+        return steps;
     }
 
     private TransactionState startPreparationTx() throws IOException {
@@ -364,4 +1146,180 @@ public class FCRepoBenchRunner {
         final char pre = "KMGTPE".charAt(exp - 1);
         return String.format("%.1f %cB", size / Math.pow(unit, exp), pre);
     }
+
+    /**
+     * Retrieves the results of the measured actions in the order they have
+     * been scheduled and writes them to the durations log and the request
+     * log, so the threads performing the actions never wait for a file. The
+     * results are passed through a bounded queue, so at most
+     * {@link #MAX_PENDING_RESULTS} of them are kept at any time. The logs are
+     * closed once all results have been collected.
+     */
+    private class ResultCollector extends Thread {
+
+        private final BlockingQueue<PendingResult> pending = new ArrayBlockingQueue<>(MAX_PENDING_RESULTS);
+
+        /* marks the end of the results */
+        private final PendingResult end = new PendingResult(null, 0, 0, null);
+
+        private final RequestLog requestLog;
+
+        private long failed;
+
+        private long[] completed = new long[64];
+
+        private int seconds;
+
+        /* the nano time the first measured action has been added at, set before it is passed to the collector */
+        private long firstAddedAt;
+
+        private boolean added;
+
+        private ResultCollector(final RequestLog requestLog) {
+            super("result-collector");
+            setDaemon(true);
+            this.requestLog = requestLog;
+        }
+
+        /**
+         * Add the result of an action, waiting for room in the queue if
+         * the collector falls behind
+         *
+         * @param action the action performed
+         * @param scheduledAt the time the action has been scheduled at in
+         *        milliseconds since the epoch
+         * @param intendedStart the intended start time of the action or
+         *        {@link ActionWorker#UNSCHEDULED}
+         * @param result the future result of the action
+         */
+        private void add(final Action action, final long scheduledAt, final long intendedStart,
+                final Future<BenchToolResult> result) throws InterruptedException {
+            if (!added) {
+                firstAddedAt = System.nanoTime();
+                added = true;
+            }
+            pending.put(new PendingResult(action, scheduledAt, intendedStart, result));
+        }
+
+        /**
+         * Wait until all results added so far have been collected
+         */
+        private void finish() {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    pending.put(end);
+                    join();
+                    break;
+                } catch (final InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (failed > 0) {
+                LOG.error("{} action(s) failed", failed);
+            }
+        }
+
+        @Override
+        public void run() {
+            long count = 0;
+            boolean log = logOut != null;
+            boolean logRequests = requestLog != null;
+            try {
+                for (PendingResult p = pending.take(); p != end; p = pending.take()) {
+                    BenchToolResult res = null;
+                    try {
+                        res = p.future.get();
+                        LOG.debug("{} actions finished", ++count);
+                    } catch (final ExecutionException e) {
+                        if (failed++ == 0) {
+                            LOG.error("Error while getting results from worker threads", e);
+                        }
+                    }
+                    if (res != null) {
+                        countCompleted(res);
+                    }
+                    /* keep collecting if a log can not be written, the scheduling would block otherwise */
+                    if (log && res != null) {
+                        try {
+                            logOut.write((res.getDuration() + "\n").getBytes());
+                        } catch (final IOException e) {
+                            LOG.error("Unable to write the durations log", e);
+                            log = false;
+                        }
+                    }
+                    if (logRequests) {
+                        try {
+                            if (res == null) {
+                                requestLog.write(p.scheduledAt, p.action, RequestLog.FAILED, -1, -1, -1);
+                            } else {
+                                requestLog.write(p.scheduledAt, p.action, res.isCorrupt() ? RequestLog.CORRUPT
+                                        : RequestLog.OK, ActionWorker.getLatency(p.intendedStart, res), res
+                                        .getDuration(), res.getSize());
+                            }
+                        } catch (final IOException e) {
+                            LOG.error("Unable to write the request log", e);
+                            logRequests = false;
+                        }
+                    }
+                }
+            } catch (final InterruptedException e) {
+                LOG.error("Interrupted while collecting the results", e);
+            } finally {
+                throughputSamples = Arrays.copyOf(completed, seconds);
+                closeLogs();
+            }
+        }
+
+        /**
+         * Count a completed action in the second of the run it has been
+         * completed in. Counting by the second it has been scheduled in would
+         * only measure the offered rate in open loop runs.
+         */
+        private void countCompleted(final BenchToolResult res) {
+            /* an async action may complete before it has been added */
+            final int second = (int) Math.max(TimeUnit.NANOSECONDS.toSeconds(res.getCompletedAt() - firstAddedAt), 0);
+            if (second >= completed.length) {
+                completed = Arrays.copyOf(completed, Math.max(second + 1, completed.length * 2));
+            }
+            completed[second]++;
+            seconds = Math.max(seconds, second + 1);
+        }
+
+        private void closeLogs() {
+            try {
+                if (logOut != null) {
+                    logOut.close();
+                }
+                if (requestLog != null) {
+                    requestLog.close();
+                }
+            } catch (final IOException e) {
+                LOG.error("Unable to close the logs", e);
+            }
+        }
+    }
+
+    private static class PendingResult {
+
+        private final Action action;
+
+        private final long scheduledAt;
+
+        private final long intendedStart;
+
+        private final Future<BenchToolResult> future;
+
+        private PendingResult(final Action action, final long scheduledAt, final long intendedStart,
+                final Future<BenchToolResult> future) {
+            super();
+            this.action = action;
+            this.scheduledAt = scheduledAt;
+            this.intendedStart = intendedStart;
+            this.future = future;
+        }
+    }
 }
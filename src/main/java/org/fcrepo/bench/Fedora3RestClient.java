@@ -12,7 +12,8 @@ import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
-import org.apache.http.util.EntityUtils;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.fcrepo.bench.BenchTool.Action;
 import org.fcrepo.bench.BenchTool.FedoraVersion;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -28,6 +29,45 @@ public class Fedora3RestClient extends FedoraRestClient {
         super(fedoraUri, FedoraVersion.FCREPO3, null);
     }
 
+    private String getDatastreamUri(final String pid) {
+        return this.fedoraUri + "/objects/bt:" + pid + "/datastreams/ds1";
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.fcrepo.bench.FedoraRestClient#createRequest(org.fcrepo.bench.BenchTool.Action, java.lang.String,
+     * long, org.fcrepo.bench.TransactionState)
+     */
+    @Override
+    protected HttpUriRequest createRequest(final Action action, final String pid, final long size,
+            final TransactionState tx) throws IOException {
+        switch (action) {
+        case INGEST:
+            final HttpPost post = new HttpPost(getDatastreamUri(pid) + "?versionable=true&controlGroup=M");
+            post.setEntity(createEntity(pid, size));
+            return post;
+        case UPDATE:
+            final HttpPut put = new HttpPut(getDatastreamUri(pid) + "?versionable=true&controlGroup=M");
+            put.setEntity(createEntity(pid, size));
+            return put;
+        case READ:
+            return new HttpGet(getDatastreamUri(pid) + "/content");
+        case DELETE:
+            return new HttpDelete(getDatastreamUri(pid));
+        default:
+            return super.createRequest(action, pid, size, tx);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.fcrepo.bench.FedoraRestClient#getExpectedStatus(org.fcrepo.bench.BenchTool.Action)
+     */
+    @Override
+    protected int getExpectedStatus(final Action action) {
+        return action == Action.INGEST ? 201 : 200;
+    }
+
     @Override
     protected long createObject(final String pid, final TransactionState tx) throws IOException {
         final HttpPost post =
@@ -46,9 +86,9 @@ public class Fedora3RestClient extends FedoraRestClient {
 
     @Override
     protected long createDatastream(final String pid, final long size, final TransactionState tx) throws IOException {
-        final String dsUri = this.fedoraUri + "/objects/bt:" + pid + "/datastreams/ds1?versionable=true&controlGroup=M";
+        final String dsUri = getDatastreamUri(pid) + "?versionable=true&controlGroup=M";
         final HttpPost post = new HttpPost(dsUri);
-        post.setEntity(new BenchToolEntity(size, BenchTool.RANDOM_SLICE));
+        post.setEntity(createEntity(pid, size));
         final long start = System.currentTimeMillis();
         final HttpResponse resp = BenchTool.httpClient.execute(post);
         final long duration = System.currentTimeMillis() - start;
@@ -62,9 +102,9 @@ public class Fedora3RestClient extends FedoraRestClient {
 
     @Override
     protected long updateDatastream(final String pid, final long size, final TransactionState tx) throws IOException {
-        final String dsUri = this.fedoraUri + "/objects/bt:" + pid + "/datastreams/ds1?versionable=true&controlGroup=M";
+        final String dsUri = getDatastreamUri(pid) + "?versionable=true&controlGroup=M";
         final HttpPut put = new HttpPut(dsUri);
-        put.setEntity(new BenchToolEntity(size, BenchTool.RANDOM_SLICE));
+        put.setEntity(createEntity(pid, size));
         final long start = System.currentTimeMillis();
         final HttpResponse resp = BenchTool.httpClient.execute(put);
         final long duration = System.currentTimeMillis() - start;
@@ -77,19 +117,25 @@ public class Fedora3RestClient extends FedoraRestClient {
     }
 
     @Override
-    protected long retrieveDatastream(final String pid, final TransactionState tx) throws IOException {
-        final String dsUri = this.fedoraUri + "/objects/bt:" + pid + "/datastreams/ds1/content";
+    protected BenchToolResult retrieveDatastream(final String pid, final long size, final TransactionState tx)
+            throws IOException {
+        final String dsUri = getDatastreamUri(pid) + "/content";
         final HttpGet get = new HttpGet(dsUri);
-        final long start = System.currentTimeMillis();
-        final HttpResponse resp = BenchTool.httpClient.execute(get);
-        final long duration = System.currentTimeMillis() - start;
-        EntityUtils.consume(resp.getEntity());
-        get.releaseConnection();
-        if (resp.getStatusLine().getStatusCode() != 200) {
-            throw new IOException("Unable to retrieve datastream from " + dsUri + "\nFedora returned " +
-                    resp.getStatusLine().getStatusCode());
+        try {
+            final long start = System.nanoTime();
+            final HttpResponse resp = BenchTool.httpClient.execute(get);
+            final long firstByte = System.nanoTime();
+            if (resp.getStatusLine().getStatusCode() != 200) {
+                throw new IOException("Unable to retrieve datastream from " + dsUri + "\nFedora returned " +
+                        resp.getStatusLine().getStatusCode());
+            }
+            final PayloadVerifier verifier = createVerifier(pid, size);
+            final long read = DiscardSink.drain(resp.getEntity(), verifier);
+            return BenchToolResult.fromTransfer(System.nanoTime() - start, firstByte - start, read,
+                    verifier != null && !verifier.isValid());
+        } finally {
+            get.releaseConnection();
         }
-        return duration;
     }
 
     @Override
@@ -104,7 +150,7 @@ public class Fedora3RestClient extends FedoraRestClient {
 
     @Override
     protected long deleteDatastream(final String pid, final TransactionState tx) throws IOException {
-        final String dsUri = this.fedoraUri + "/objects/bt:" + pid + "/datastreams/ds1";
+        final String dsUri = getDatastreamUri(pid);
         final HttpDelete delete = new HttpDelete(dsUri);
         final long start = System.currentTimeMillis();
         final HttpResponse resp = BenchTool.httpClient.execute(delete);
@@ -17,7 +17,9 @@ import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPatch;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.entity.StringEntity;
+import org.fcrepo.bench.BenchTool.Action;
 import org.fcrepo.bench.BenchTool.FedoraVersion;
 import org.fcrepo.bench.TransactionStateManager.TransactionMode;
 import org.slf4j.Logger;
@@ -43,13 +45,67 @@ public class Fedora4RestClient extends FedoraRestClient {
         if (tx == null) {
             return this.fedoraUri.toString() + "/rest";
         }
-        while (!tx.transactionCreated()) {
-            try {
-                Thread.sleep(10L);
-            } catch (final InterruptedException e) {
-            }
+        /* actions are started only once their transaction exists */
+        final String txId = tx.getTransactionId();
+        if (txId == null) {
+            throw new IllegalStateException("The transaction has not been created");
+        }
+        return this.fedoraUri.toString() + "/rest/" + txId;
+    }
+
+    private String getDatastreamUri(final String pid, final TransactionState tx) {
+        return getFedoraRestUri(tx) + "/objects/" + pid + "/ds1";
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.fcrepo.bench.FedoraRestClient#createRequest(org.fcrepo.bench.BenchTool.Action, java.lang.String,
+     * long, org.fcrepo.bench.TransactionState)
+     */
+    @Override
+    protected HttpUriRequest createRequest(final Action action, final String pid, final long size,
+            final TransactionState tx) throws IOException {
+        switch (action) {
+        case INGEST:
+        case UPDATE:
+            final HttpPut put = new HttpPut(getDatastreamUri(pid, tx) + "/fcr:content");
+            put.setEntity(createEntity(pid, size));
+            return put;
+        case READ:
+            return new HttpGet(getDatastreamUri(pid, tx) + "/fcr:content");
+        case DELETE:
+            return new HttpDelete(getDatastreamUri(pid, tx));
+        case SPARQL_INSERT:
+        case CREATE_PROPERTY:
+            return createSparqlPatch(pid, tx, getInsertQuery(pid));
+        case SPARQL_SELECT:
+        case READ_PROPERTY:
+            return createSparqlPost(pid);
+        case UPDATE_PROPERTY:
+            return createSparqlPatch(pid, tx, getUpdateQuery(pid));
+        case DELETE_PROPERTY:
+            return createSparqlPatch(pid, tx, getDeleteQuery(pid));
+        default:
+            return super.createRequest(action, pid, size, tx);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.fcrepo.bench.FedoraRestClient#getExpectedStatus(org.fcrepo.bench.BenchTool.Action)
+     */
+    @Override
+    protected int getExpectedStatus(final Action action) {
+        switch (action) {
+        case INGEST:
+            return 201;
+        case READ:
+        case SPARQL_SELECT:
+        case READ_PROPERTY:
+            return 200;
+        default:
+            return 204;
         }
-        return this.fedoraUri.toString() + "/rest/" + tx.getTransactionId();
     }
 
     @Override
@@ -70,10 +126,10 @@ public class Fedora4RestClient extends FedoraRestClient {
 
     @Override
     protected long createDatastream(final String pid, final long size, final TransactionState tx) throws IOException {
-        final String dsUri = getFedoraRestUri(tx) + "/objects/" + pid + "/ds1/fcr:content";
+        final String dsUri = getDatastreamUri(pid, tx) + "/fcr:content";
         LOG.debug("Creating DS {}", dsUri);
         final HttpPut put = new HttpPut(dsUri);
-        put.setEntity(new BenchToolEntity(size, BenchTool.RANDOM_SLICE));
+        put.setEntity(createEntity(pid, size));
         final long start = System.currentTimeMillis();
         final HttpResponse resp = BenchTool.httpClient.execute(put);
         final long duration = System.currentTimeMillis() - start;
@@ -87,9 +143,9 @@ public class Fedora4RestClient extends FedoraRestClient {
 
     @Override
     protected long updateDatastream(final String pid, final long size, final TransactionState tx) throws IOException {
-        final String dsUri = getFedoraRestUri(tx) + "/objects/" + pid + "/ds1/fcr:content";
+        final String dsUri = getDatastreamUri(pid, tx) + "/fcr:content";
         final HttpPut put = new HttpPut(dsUri);
-        put.setEntity(new BenchToolEntity(size, BenchTool.RANDOM_SLICE));
+        put.setEntity(createEntity(pid, size));
         final long start = System.currentTimeMillis();
         final HttpResponse resp = BenchTool.httpClient.execute(put);
         final long duration = System.currentTimeMillis() - start;
@@ -102,18 +158,25 @@ public class Fedora4RestClient extends FedoraRestClient {
     }
 
     @Override
-    protected long retrieveDatastream(final String pid, final TransactionState tx) throws IOException {
-        final String dsUri = getFedoraRestUri(tx) + "/objects/" + pid + "/ds1/fcr:content";
+    protected BenchToolResult retrieveDatastream(final String pid, final long size, final TransactionState tx)
+            throws IOException {
+        final String dsUri = getDatastreamUri(pid, tx) + "/fcr:content";
         final HttpGet get = new HttpGet(dsUri);
-        final long start = System.currentTimeMillis();
-        final HttpResponse resp = BenchTool.httpClient.execute(get);
-        final long duration = System.currentTimeMillis() - start;
-        get.releaseConnection();
-        if (resp.getStatusLine().getStatusCode() != 200) {
-            throw new IOException("Unable to retrieve datastream from " + dsUri + "\nFedora returned " +
-                    resp.getStatusLine().getStatusCode());
+        try {
+            final long start = System.nanoTime();
+            final HttpResponse resp = BenchTool.httpClient.execute(get);
+            final long firstByte = System.nanoTime();
+            if (resp.getStatusLine().getStatusCode() != 200) {
+                throw new IOException("Unable to retrieve datastream from " + dsUri + "\nFedora returned " +
+                        resp.getStatusLine().getStatusCode());
+            }
+            final PayloadVerifier verifier = createVerifier(pid, size);
+            final long read = DiscardSink.drain(resp.getEntity(), verifier);
+            return BenchToolResult.fromTransfer(System.nanoTime() - start, firstByte - start, read,
+                    verifier != null && !verifier.isValid());
+        } finally {
+            get.releaseConnection();
         }
-        return duration;
     }
 
     @Override
@@ -128,7 +191,7 @@ public class Fedora4RestClient extends FedoraRestClient {
 
     @Override
     protected long deleteDatastream(final String pid, final TransactionState tx) throws IOException {
-        final String dsUri = getFedoraRestUri(tx) + "/objects/" + pid + "/ds1";
+        final String dsUri = getDatastreamUri(pid, tx);
         final HttpDelete delete = new HttpDelete(dsUri);
         final long start = System.currentTimeMillis();
         final HttpResponse resp = BenchTool.httpClient.execute(delete);
@@ -196,14 +259,10 @@ public class Fedora4RestClient extends FedoraRestClient {
     }
 
     private long finishTransaction(final TransactionState transaction, final TransactionMode mode) throws IOException {
-
-        // Wait for all actions assigned to this transaction to complete for
-        // multi-threaded runs
-        try {
-            while (!transaction.isReadyForCommit()) {
-                Thread.sleep(5);
-            }
-        } catch (final InterruptedException e) {
+        /* transactions are finished only once all their actions have completed */
+        if (!transaction.transactionCreated()) {
+            throw new IOException("Unable to " + mode.toString().toLowerCase() +
+                    " a transaction which has not been created");
         }
 
         String txUri = this.fedoraUri + "/rest/" + transaction.getTransactionId();
@@ -237,13 +296,7 @@ public class Fedora4RestClient extends FedoraRestClient {
      */
     @Override
     protected long sparqlInsert(final String pid, final TransactionState tx) throws IOException {
-        final String uri = getFedoraRestUri(tx) + "/objects/" + pid;
-        final String objectUri = this.fedoraUri + "/rest/objects/" + pid;
-        final HttpPatch patch = new HttpPatch(uri);
-        patch.addHeader("Content-Type", "application/sparql-update");
-        final String query =
-                "INSERT { <" + objectUri + "> <http://purl.org/dc/elements/1.1/title> \"" + pid + "\" } WHERE {}";
-        patch.setEntity(new StringEntity(query));
+        final HttpPatch patch = createSparqlPatch(pid, tx, getInsertQuery(pid));
         final long start = System.currentTimeMillis();
         final HttpResponse resp = BenchTool.httpClient.execute(patch);
         final long duration = System.currentTimeMillis() - start;
@@ -261,20 +314,13 @@ public class Fedora4RestClient extends FedoraRestClient {
      */
     @Override
     protected long sparqlSelect(final String pid, final TransactionState tx) throws IOException {
-        final String sparqlUri = this.fedoraUri + "/rest/fcr:sparql";
-        final String objectUri = this.fedoraUri + "/rest/objects/" + pid;
-        final HttpPost post = new HttpPost(sparqlUri);
-        final String query =
-                "SELECT ?s FROM <" + objectUri + "> WHERE {?s <http://purl.org/dc/elements/1.1/title> \"" + pid +
-                "\"}";
-        post.addHeader("Content-Type", "application/sparql-query");
-        post.setEntity(new StringEntity(query));
+        final HttpPost post = createSparqlPost(pid);
         final long start = System.currentTimeMillis();
         final HttpResponse resp = BenchTool.httpClient.execute(post);
         final long duration = System.currentTimeMillis() - start;
         if (resp.getStatusLine().getStatusCode() != 200) {
             System.out.println(resp.getStatusLine().getStatusCode());
-            throw new IOException("Failed to select SPARQL with " + query);
+            throw new IOException("Failed to select SPARQL with " + getSelectQuery(pid));
         }
         post.releaseConnection();
         return duration;
@@ -286,15 +332,7 @@ public class Fedora4RestClient extends FedoraRestClient {
      */
     @Override
     protected long sparqlUpdate(final String pid, final TransactionState tx) throws IOException {
-        final String uri = getFedoraRestUri(tx) + "/objects/" + pid;
-        final String objectUri = this.fedoraUri + "/rest/objects/" + pid;
-        final HttpPatch patch = new HttpPatch(uri);
-        patch.addHeader("Content-Type", "application/sparql-update");
-        final String query =
-                " DELETE { <" + objectUri + "> <http://purl.org/dc/elements/1.1/title> ?s }" + " INSERT { <" +
-                        objectUri + "> <http://purl.org/dc/elements/1.1/title> \"" + pid + "-updated\" }" +
-                        " WHERE { <" + objectUri + "> <http://purl.org/dc/elements/1.1/title> ?s }";
-        patch.setEntity(new StringEntity(query));
+        final HttpPatch patch = createSparqlPatch(pid, tx, getUpdateQuery(pid));
         final long start = System.currentTimeMillis();
         final HttpResponse resp = BenchTool.httpClient.execute(patch);
         final long duration = System.currentTimeMillis() - start;
@@ -311,14 +349,7 @@ public class Fedora4RestClient extends FedoraRestClient {
      */
     @Override
     protected long sparqlDelete(final String pid, final TransactionState tx) throws IOException {
-        final String uri = getFedoraRestUri(tx) + "/objects/" + pid;
-        final String objectUri = this.fedoraUri + "/rest/objects/" + pid;
-        final HttpPatch patch = new HttpPatch(uri);
-        patch.addHeader("Content-Type", "application/sparql-update");
-        final String query =
-                " DELETE { <" + objectUri + "> <http://purl.org/dc/elements/1.1/title> ?t }" + " WHERE { <" +
-                        objectUri + "> <http://purl.org/dc/elements/1.1/title> ?t }";
-        patch.setEntity(new StringEntity(query));
+        final HttpPatch patch = createSparqlPatch(pid, tx, getDeleteQuery(pid));
         final long start = System.currentTimeMillis();
         final HttpResponse resp = BenchTool.httpClient.execute(patch);
         final long duration = System.currentTimeMillis() - start;
@@ -328,4 +359,46 @@ public class Fedora4RestClient extends FedoraRestClient {
         patch.releaseConnection();
         return duration;
     }
+
+    private HttpPatch createSparqlPatch(final String pid, final TransactionState tx, final String query)
+            throws IOException {
+        final HttpPatch patch = new HttpPatch(getFedoraRestUri(tx) + "/objects/" + pid);
+        patch.addHeader("Content-Type", "application/sparql-update");
+        patch.setEntity(new StringEntity(query));
+        return patch;
+    }
+
+    private HttpPost createSparqlPost(final String pid) throws IOException {
+        final HttpPost post = new HttpPost(this.fedoraUri + "/rest/fcr:sparql");
+        post.addHeader("Content-Type", "application/sparql-query");
+        post.setEntity(new StringEntity(getSelectQuery(pid)));
+        return post;
+    }
+
+    private String getObjectUri(final String pid) {
+        return this.fedoraUri + "/rest/objects/" + pid;
+    }
+
+    private String getInsertQuery(final String pid) {
+        return "INSERT { <" + getObjectUri(pid) + "> <http://purl.org/dc/elements/1.1/title> \"" + pid +
+                "\" } WHERE {}";
+    }
+
+    private String getSelectQuery(final String pid) {
+        return "SELECT ?s FROM <" + getObjectUri(pid) + "> WHERE {?s <http://purl.org/dc/elements/1.1/title> \"" +
+                pid + "\"}";
+    }
+
+    private String getUpdateQuery(final String pid) {
+        final String objectUri = getObjectUri(pid);
+        return " DELETE { <" + objectUri + "> <http://purl.org/dc/elements/1.1/title> ?s }" + " INSERT { <" +
+                objectUri + "> <http://purl.org/dc/elements/1.1/title> \"" + pid + "-updated\" }" + " WHERE { <" +
+                objectUri + "> <http://purl.org/dc/elements/1.1/title> ?s }";
+    }
+
+    private String getDeleteQuery(final String pid) {
+        final String objectUri = getObjectUri(pid);
+        return " DELETE { <" + objectUri + "> <http://purl.org/dc/elements/1.1/title> ?t }" + " WHERE { <" +
+                objectUri + "> <http://purl.org/dc/elements/1.1/title> ?t }";
+    }
 }
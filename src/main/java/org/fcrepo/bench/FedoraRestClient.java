@@ -3,22 +3,23 @@ package org.fcrepo.bench;
 
 import java.io.IOException;
 import java.net.URI;
-import java.util.List;
 
+import org.apache.http.client.methods.HttpUriRequest;
+import org.fcrepo.bench.BenchTool.Action;
 import org.fcrepo.bench.BenchTool.FedoraVersion;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 public abstract class FedoraRestClient {
 
-    private static final Logger LOG = LoggerFactory.getLogger(FedoraRestClient.class);
-
     protected final FedoraVersion version;
 
     protected final URI fedoraUri;
 
     protected final TransactionStateManager txManager;
 
+    private long payloadSeed;
+
+    private boolean verify;
+
     public FedoraRestClient(final URI fedoraUri, final FedoraVersion version, final TransactionStateManager txManager) {
         super();
         this.version = version;
@@ -34,6 +35,40 @@ public abstract class FedoraRestClient {
         return txManager;
     }
 
+    /**
+     * @param payloadSeed the seed from which the content of every binary is
+     *        derived
+     */
+    public void setPayloadSeed(final long payloadSeed) {
+        this.payloadSeed = payloadSeed;
+    }
+
+    /**
+     * @param verify whether to verify the content of retrieved binaries
+     */
+    public void setVerify(final boolean verify) {
+        this.verify = verify;
+    }
+
+    /**
+     * Create the entity of a binary. Its content is determined by the pid,
+     * the size and the payload seed.
+     */
+    protected BenchToolEntity createEntity(final String pid, final long size) {
+        return new BenchToolEntity(size, BenchTool.RANDOM_SLICE, BenchToolInputStream.seed(payloadSeed, pid, size));
+    }
+
+    /**
+     * @return a verifier for the binary of the given object, or null if
+     *         retrieved binaries are not verified
+     */
+    protected PayloadVerifier createVerifier(final String pid, final long size) {
+        if (!verify) {
+            return null;
+        }
+        return new PayloadVerifier(size, BenchTool.RANDOM_SLICE, BenchToolInputStream.seed(payloadSeed, pid, size));
+    }
+
     protected abstract long deleteDatastream(String pid, TransactionState tx) throws IOException;
 
     protected abstract long deleteObject(String pid, TransactionState tx) throws IOException;
@@ -42,12 +77,46 @@ public abstract class FedoraRestClient {
 
     protected abstract long createDatastream(String pid, long size, TransactionState tx) throws IOException;
 
-    protected abstract long retrieveDatastream(String pid, TransactionState tx) throws IOException;
+    /**
+     * Retrieve the content of a datastream. The whole body is read, so the
+     * result reflects the full transfer and not only the time until the
+     * response headers arrived.
+     *
+     * @param pid the pid of the object
+     * @param size the expected size of the datastream, used for verification
+     * @param tx the Transaction to use if any
+     * @return the duration, time to first byte and number of bytes read
+     */
+    protected abstract BenchToolResult retrieveDatastream(String pid, long size, TransactionState tx)
+            throws IOException;
 
     protected abstract long updateDatastream(String pid, long size, TransactionState tx) throws IOException;
 
     protected abstract int getClusterSize() throws IOException;
 
+    /**
+     * Create the request performing an action without executing it, e.g. for
+     * an asynchronous client
+     *
+     * @param action the action to perform
+     * @param pid the pid of the object
+     * @param size the size of the binary, if the action uploads one
+     * @param tx the Transaction to use if any
+     * @return the request
+     */
+    protected HttpUriRequest createRequest(final Action action, final String pid, final long size,
+            final TransactionState tx) throws IOException {
+        throw new UnsupportedOperationException("The action " + action + " is not available for " + version);
+    }
+
+    /**
+     * @param action the action
+     * @return the status code Fedora returns if the action succeeded
+     */
+    protected int getExpectedStatus(final Action action) {
+        throw new UnsupportedOperationException("The action " + action + " is not available for " + version);
+    }
+
     /**
      * Calls Fedora's SPARQL endpoint in order to execute an INSERT query
      * 
@@ -92,52 +161,6 @@ public abstract class FedoraRestClient {
         throw new UnsupportedOperationException();
     }
 
-    final void purgeObjects(final List<String> pids, final TransactionState tx) {
-        for (final String pid : pids) {
-            try {
-                this.deleteObject(pid, tx);
-            } catch (final IOException e) {
-                LOG.error("Unable to purge objects in Fedora", e);
-            }
-        }
-    }
-
-    final long createObjects(final List<String> pids, final TransactionState tx) {
-        long duration = 0;
-        for (final String pid : pids) {
-            try {
-                duration += this.createObject(pid, tx);
-            } catch (final IOException e) {
-                LOG.error("Unable to prepare objects in Fedora", e);
-            }
-        }
-        return duration;
-    }
-
-    public void createDatastreams(final List<String> pids, final long size, final TransactionState tx) {
-        for (final String pid : pids) {
-            try {
-                this.createDatastream(pid, size, tx);
-            } catch (final IOException e) {
-                LOG.error("Unable to prepare datastream in Fedora", e);
-            }
-        }
-    }
-
-    public void createProperties(final List<String> pids, final TransactionState tx) {
-        if (version == FedoraVersion.FCREPO3) {
-            throw new UnsupportedOperationException();
-        }
-
-        for (final String pid : pids) {
-            try {
-                this.sparqlInsert(pid, tx);
-            } catch (final IOException e) {
-                LOG.error("Unable to prepare property in Fedora", e);
-            }
-        }
-    }
-
     /**
      * Calls the Fedora API to create a new transaction. The provided
      * Transaction object is assigned the transaction ID of the newly created
@@ -0,0 +1,422 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * An in-process stand-in for the Fedora 4 REST API, implementing just the
+ * requests of {@link Fedora4RestClient}: creating and deleting objects,
+ * writing and reading the binary content of their datastream, SPARQL updates
+ * and queries, transactions and the repository's root resource with its
+ * cluster size. The landing page is served on any path outside of
+ * <code>/rest</code>, so the stand-in is detected as Fedora 4 regardless of
+ * the context path of the Fedora URL.
+ * <p>
+ * Running the tool against the stand-in measures its own overhead and
+ * highest throughput, and lets a run complete without a repository or a
+ * network. Every response can be delayed by a fixed latency and every body
+ * throttled to a bandwidth. Binary content is discarded unless it is stored,
+ * in which case it is kept in memory and returned on reads, so it can be
+ * verified; discarded content is read back as zeros of the written size.
+ * <p>
+ * Actions in a transaction are applied right away. Rolling back a
+ * transaction removes the resources it created but does not restore the ones
+ * it updated or deleted.
+ */
+public class FedoraStandIn implements HttpHandler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FedoraStandIn.class);
+
+    private static final String LANDING_PAGE = "<html><head><title>Fedora Commons Repository 4.0</title></head>" +
+            "<body><p>You probably want to visit something a little more interesting, such as:</p>" +
+            "<ul><li><a href=\"rest/\">the Fedora REST API endpoint</a></li></ul></body></html>";
+
+    private static final String SPARQL_RESULTS = "{\"head\":{\"vars\":[\"s\"]},\"results\":{\"bindings\":[]}}";
+
+    private static final String CONTENT = "/fcr:content";
+
+    private static final byte[] ZEROS = new byte[64 * 1024];
+
+    /* the server's threads are pooled, so every thread reads the request bodies into its own buffer */
+    private static final ThreadLocal<byte[]> BUFFER = new ThreadLocal<byte[]>() {
+
+        @Override
+        protected byte[] initialValue() {
+            return new byte[ZEROS.length];
+        }
+    };
+
+    private final int port;
+
+    private final long latency;
+
+    private final long bandwidth;
+
+    private final boolean store;
+
+    /* the resources by their path below /rest, sorted so an object's children can be found */
+    private final ConcurrentNavigableMap<String, Resource> resources = new ConcurrentSkipListMap<>();
+
+    /* the open transactions with the paths of the resources they created */
+    private final ConcurrentMap<String, Set<String>> transactions = new ConcurrentHashMap<>();
+
+    private final AtomicLong requests = new AtomicLong();
+
+    private HttpServer server;
+
+    private ExecutorService executor;
+
+    /**
+     * @param port the port to serve the REST API on
+     * @param latency the number of milliseconds every response is delayed
+     * @param bandwidth the number of bytes per second every request and
+     *        response body is throttled to, or 0 for no limit
+     * @param store whether binary content is kept in memory
+     */
+    public FedoraStandIn(final int port, final long latency, final long bandwidth, final boolean store) {
+        super();
+        this.port = port;
+        this.latency = latency;
+        this.bandwidth = bandwidth;
+        this.store = store;
+    }
+
+    /**
+     * Start serving the REST API
+     */
+    public void start() throws IOException {
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            /*
+             * the headers and the body are written separately, which Nagle's
+             * algorithm would delay. The property is only read by the first
+             * server of the JVM, so the stand-in has to be started first.
+             */
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        server = HttpServer.create(new InetSocketAddress(port), 1024);
+        server.createContext("/", this);
+        executor = Executors.newCachedThreadPool(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread t = new Thread(r, "fedora-stand-in");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        server.setExecutor(executor);
+        server.start();
+        LOG.info("Serving a Fedora 4 stand-in at http://localhost:{} with {} ms latency, {} bandwidth and {} content",
+                new Object[] {port, latency, bandwidth > 0 ? bandwidth + " bytes/sec" : "unlimited",
+                        store ? "stored" : "discarded"});
+    }
+
+    /**
+     * Stop serving the REST API and drop all resources
+     */
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+        LOG.info("The Fedora 4 stand-in served {} request(s)", requests.get());
+        resources.clear();
+        transactions.clear();
+    }
+
+    @Override
+    public void handle(final HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        try {
+            final String path = exchange.getRequestURI().getPath();
+            int rest = path.indexOf("/rest/");
+            if (rest < 0 && path.endsWith("/rest")) {
+                rest = path.length() - 5;
+            }
+            if (rest < 0) {
+                if (exchange.getRequestMethod().equals("GET")) {
+                    sendText(exchange, 200, "text/html", LANDING_PAGE);
+                } else {
+                    send(exchange, 405);
+                }
+                return;
+            }
+            final String baseUri = "http://" + exchange.getRequestHeaders().getFirst("Host") +
+                    path.substring(0, rest) + "/rest/";
+            String resource = path.substring(rest + 5);
+            String txId = null;
+            if (resource.startsWith("/tx:")) {
+                final int end = resource.indexOf('/', 1);
+                txId = end < 0 ? resource.substring(1) : resource.substring(1, end);
+                resource = end < 0 ? "" : resource.substring(end);
+            }
+            handle(exchange, baseUri, resource, txId);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handle(final HttpExchange exchange, final String baseUri, final String resource,
+            final String txId) throws IOException {
+        final String method = exchange.getRequestMethod();
+        final Set<String> created = txId == null ? null : transactions.get(txId);
+        if (txId != null && created == null) {
+            /* Fedora answers requests in an unknown or expired transaction with 410 Gone */
+            send(exchange, 410);
+        } else if (resource.isEmpty() || resource.equals("/")) {
+            if (method.equals("GET")) {
+                sendText(exchange, 200, "application/rdf+xml", getRootRdf(baseUri));
+            } else {
+                send(exchange, 405);
+            }
+        } else if (resource.equals("/fcr:tx") && txId == null) {
+            if (method.equals("POST")) {
+                final String id = "tx:" + UUID.randomUUID();
+                transactions.put(id, Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>()));
+                sendCreated(exchange, baseUri + id);
+            } else {
+                send(exchange, 405);
+            }
+        } else if (resource.equals("/fcr:tx/fcr:commit") || resource.equals("/fcr:tx/fcr:rollback")) {
+            if (!method.equals("POST")) {
+                send(exchange, 405);
+            } else if (txId == null || transactions.remove(txId) == null) {
+                send(exchange, 404);
+            } else {
+                if (resource.endsWith("rollback")) {
+                    for (final String path : created) {
+                        resources.remove(path);
+                    }
+                }
+                send(exchange, 204);
+            }
+        } else if (resource.equals("/fcr:sparql")) {
+            if (method.equals("POST")) {
+                readBody(exchange, false);
+                sendText(exchange, 200, "application/sparql-results+json", SPARQL_RESULTS);
+            } else {
+                send(exchange, 405);
+            }
+        } else if (resource.endsWith(CONTENT)) {
+            handleContent(exchange, baseUri, resource.substring(0, resource.length() - CONTENT.length()), created);
+        } else {
+            handleResource(exchange, baseUri, resource, created);
+        }
+    }
+
+    private void handleContent(final HttpExchange exchange, final String baseUri, final String path,
+            final Set<String> created) throws IOException {
+        final String method = exchange.getRequestMethod();
+        if (method.equals("PUT")) {
+            final Resource content = readBody(exchange, store);
+            if (resources.put(path, content) != null) {
+                send(exchange, 204);
+                return;
+            }
+            if (created != null) {
+                created.add(path);
+            }
+            sendCreated(exchange, baseUri + path.substring(1) + CONTENT);
+        } else if (method.equals("GET")) {
+            final Resource content = resources.get(path);
+            if (content == null) {
+                send(exchange, 404);
+            } else {
+                sendContent(exchange, content);
+            }
+        } else {
+            send(exchange, 405);
+        }
+    }
+
+    private void handleResource(final HttpExchange exchange, final String baseUri, final String path,
+            final Set<String> created) throws IOException {
+        final String method = exchange.getRequestMethod();
+        switch (method) {
+        case "PUT":
+            readBody(exchange, false);
+            if (resources.putIfAbsent(path, new Resource(0, null)) != null) {
+                send(exchange, 204);
+                break;
+            }
+            if (created != null) {
+                created.add(path);
+            }
+            sendCreated(exchange, baseUri + path.substring(1));
+            break;
+        case "PATCH":
+            readBody(exchange, false);
+            send(exchange, resources.containsKey(path) ? 204 : 404);
+            break;
+        case "GET":
+            send(exchange, resources.containsKey(path) ? 200 : 404);
+            break;
+        case "DELETE":
+            final boolean deleted = resources.remove(path) != null;
+            /* deleting an object deletes its datastreams */
+            resources.subMap(path + "/", path + "0").clear();
+            send(exchange, deleted ? 204 : 404);
+            break;
+        default:
+            send(exchange, 405);
+        }
+    }
+
+    private String getRootRdf(final String uri) {
+        return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+                "<rdf:RDF xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\" " +
+                "xmlns:fedora=\"http://fedora.info/definitions/v4/repository#\">\n" +
+                "  <rdf:Description rdf:about=\"" + uri + "\">\n" +
+                "    <fedora:clusterSize>1</fedora:clusterSize>\n" +
+                "  </rdf:Description>\n" +
+                "</rdf:RDF>\n";
+    }
+
+    /**
+     * Read the request body at the configured bandwidth
+     *
+     * @return the body's size and, if it is kept, its content
+     */
+    private Resource readBody(final HttpExchange exchange, final boolean keep) throws IOException {
+        final ByteArrayOutputStream content = keep ? new ByteArrayOutputStream() : null;
+        final byte[] buffer = BUFFER.get();
+        final long start = System.nanoTime();
+        long size = 0;
+        /* the stream is left open, it is closed with the exchange */
+        final InputStream in = exchange.getRequestBody();
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            if (keep) {
+                content.write(buffer, 0, read);
+            }
+            size += read;
+            throttle(size, start);
+        }
+        return new Resource(size, keep ? content.toByteArray() : null);
+    }
+
+    private void sendContent(final HttpExchange exchange, final Resource content) throws IOException {
+        exchange.getResponseHeaders().add("Content-Type", "application/octet-stream");
+        sendHeaders(exchange, 200, content.size == 0 ? -1 : content.size);
+        final long start = System.nanoTime();
+        try (OutputStream out = exchange.getResponseBody()) {
+            long written = 0;
+            while (written < content.size) {
+                final int len = (int) Math.min(ZEROS.length, content.size - written);
+                out.write(content.data == null ? ZEROS : content.data, content.data == null ? 0 : (int) written,
+                        len);
+                written += len;
+                throttle(written, start);
+            }
+        }
+    }
+
+    private void sendText(final HttpExchange exchange, final int status, final String contentType,
+            final String text) throws IOException {
+        final byte[] body = text.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", contentType + ";charset=utf-8");
+        sendHeaders(exchange, status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * Answer with 201 Created and the URI of the new resource, like Fedora
+     */
+    private void sendCreated(final HttpExchange exchange, final String uri) throws IOException {
+        exchange.getResponseHeaders().add("Location", uri);
+        sendText(exchange, 201, "text/plain", uri);
+    }
+
+    private void send(final HttpExchange exchange, final int status) throws IOException {
+        sendHeaders(exchange, status, -1);
+    }
+
+    private void sendHeaders(final HttpExchange exchange, final int status, final long length) throws IOException {
+        /*
+         * the server closes the connection after a response without a body
+         * unless the request body has been read to its end, which only takes
+         * a single read if the handler has read the body already
+         */
+        readBody(exchange, false);
+        sleep(latency);
+        exchange.sendResponseHeaders(status, length);
+    }
+
+    /**
+     * Sleep until the given number of bytes has taken as long as the
+     * configured bandwidth allows
+     */
+    private void throttle(final long bytes, final long startNanos) throws IOException {
+        if (bandwidth > 0) {
+            final long due = bytes * 1000l / bandwidth;
+            sleep(due - (System.nanoTime() - startNanos) / 1000000l);
+        }
+    }
+
+    private static void sleep(final long millis) throws IOException {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while delaying the response");
+        }
+    }
+
+    /**
+     * A resource of the stand-in, with the size and the content of a binary
+     */
+    private static class Resource {
+
+        private final long size;
+
+        private final byte[] data;
+
+        private Resource(final long size, final byte[] data) {
+            super();
+            this.size = size;
+            this.data = data;
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.bench;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.HdrHistogram.Histogram;
+import org.fcrepo.bench.BenchTool.Action;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reports the throughput, the number of errors, the actions in flight and
+ * the latency percentiles of every interval while a run is in progress, and
+ * optionally appends them to a CSV file. The interval latencies are taken
+ * from the statistics' recorders, so reporting does not block the threads
+ * performing the actions.
+ */
+public class IntervalReporter implements Runnable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(IntervalReporter.class);
+
+    private static final String CSV_HEADER =
+            "timestamp,elapsed_s,actions,actions_per_sec,mb_per_sec,errors,in_flight,p50_ms,p90_ms,p99_ms,max_ms\n";
+
+    private final BenchToolStatistics stats;
+
+    private final long interval;
+
+    private final String csvPath;
+
+    private ScheduledExecutorService scheduler;
+
+    private Writer csv;
+
+    private long start;
+
+    private long last;
+
+    private long lastErrors;
+
+    private long lastBytes;
+
+    /**
+     * @param stats the statistics of the run
+     * @param interval the length of an interval in milliseconds
+     * @param csvPath the CSV file to append the intervals to, or null
+     */
+    public IntervalReporter(final BenchToolStatistics stats, final long interval, final String csvPath) {
+        super();
+        this.stats = stats;
+        this.interval = interval;
+        this.csvPath = csvPath;
+    }
+
+    /**
+     * Start reporting. If the CSV file cannot be opened the intervals are only
+     * logged.
+     */
+    public void start() {
+        if (csvPath != null) {
+            final boolean exists = new File(csvPath).length() > 0;
+            try {
+                csv = new OutputStreamWriter(new FileOutputStream(csvPath, true), StandardCharsets.UTF_8);
+                if (!exists) {
+                    csv.write(CSV_HEADER);
+                    csv.flush();
+                }
+            } catch (final IOException e) {
+                LOG.warn("Unable to open the interval CSV file {}", csvPath, e);
+                closeCsv();
+            }
+        }
+        start = System.nanoTime();
+        last = start;
+        lastErrors = stats.getErrors();
+        lastBytes = stats.getBytes();
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread t = new Thread(r, "interval-reporter");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        scheduler.scheduleAtFixedRate(this, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop reporting after reporting the last, possibly shorter, interval
+     */
+    public void stop() {
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        run();
+        closeCsv();
+    }
+
+    private void closeCsv() {
+        if (csv != null) {
+            try {
+                csv.close();
+            } catch (final IOException e) {
+                LOG.warn("Unable to close the interval CSV file {}", csvPath, e);
+            }
+            csv = null;
+        }
+    }
+
+    @Override
+    public synchronized void run() {
+        final long now = System.nanoTime();
+        final double seconds = Math.max(now - last, 1) / (double) TimeUnit.SECONDS.toNanos(1);
+        final Histogram latencies =
+                new Histogram(ActionStatistics.HIGHEST_TRACKABLE_VALUE, ActionStatistics.SIGNIFICANT_DIGITS);
+        for (final Action action : Action.values()) {
+            latencies.add(stats.get(action).getIntervalHistogram());
+        }
+        final long errors = stats.getErrors();
+        final long bytes = stats.getBytes();
+        final long count = latencies.getTotalCount();
+        final int inFlight = stats.getInFlight();
+        final double throughput = count / seconds;
+        final double megabytes = (bytes - lastBytes) / (1024d * 1024d * seconds);
+        LOG.info("{}s: {} action(s)/sec, {} MB/sec, {} error(s), {} in flight, p50={}ms p99={}ms", new Object[] {
+                TimeUnit.NANOSECONDS.toSeconds(now - start), FCRepoBenchRunner.FORMAT.format(throughput),
+                FCRepoBenchRunner.FORMAT.format(megabytes), errors - lastErrors, inFlight,
+                latencies.getValueAtPercentile(50d), latencies.getValueAtPercentile(99d)});
+        if (csv != null) {
+            try {
+                csv.write(System.currentTimeMillis() + "," + TimeUnit.NANOSECONDS.toSeconds(now - start) + "," +
+                        count + "," + FCRepoBenchRunner.FORMAT.format(throughput) + "," +
+                        FCRepoBenchRunner.FORMAT.format(megabytes) + "," + (errors - lastErrors) + "," + inFlight +
+                        "," + latencies.getValueAtPercentile(50d) + "," + latencies.getValueAtPercentile(90d) + "," +
+                        latencies.getValueAtPercentile(99d) + "," + latencies.getMaxValue() + "\n");
+                csv.flush();
+            } catch (final IOException e) {
+                LOG.warn("Unable to append to the interval CSV file {}, the intervals are only logged", csvPath, e);
+                closeCsv();
+            }
+        }
+        last = now;
+        lastErrors = errors;
+        lastBytes = bytes;
+    }
+}
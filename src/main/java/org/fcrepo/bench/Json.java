@@ -0,0 +1,315 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.bench;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A minimal JSON writer and parser for the reports of the tool. Objects are
+ * represented as maps, arrays as lists, numbers as {@link Long} or
+ * {@link Double}. Doubles are written with three decimals, and as null if they
+ * are not finite.
+ */
+final class Json {
+
+    private final String text;
+
+    private int pos;
+
+    private Json(final String text) {
+        super();
+        this.text = text;
+    }
+
+    /**
+     * @return the value as an indented JSON document
+     */
+    static String write(final Object value) {
+        final StringBuilder json = new StringBuilder();
+        append(json, value, "");
+        return json.append('\n').toString();
+    }
+
+    /**
+     * @return the value of the JSON document
+     * @throws IllegalArgumentException if the document can not be parsed
+     */
+    static Object parse(final String text) {
+        final Json parser = new Json(text);
+        final Object value = parser.readValue();
+        parser.skipWhitespace();
+        if (parser.pos < text.length()) {
+            throw parser.error("Unexpected content");
+        }
+        return value;
+    }
+
+    /**
+     * @return the number with three decimals, or an empty string if it is not
+     *         finite
+     */
+    static String formatNumber(final double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return "";
+        }
+        return String.format(Locale.ENGLISH, "%.3f", value);
+    }
+
+    private static void append(final StringBuilder json, final Object value, final String indent) {
+        if (value == null) {
+            json.append("null");
+        } else if (value instanceof Map) {
+            final Map<?, ?> map = (Map<?, ?>) value;
+            if (map.isEmpty()) {
+                json.append("{}");
+                return;
+            }
+            json.append("{\n");
+            int i = 0;
+            for (final Map.Entry<?, ?> entry : map.entrySet()) {
+                json.append(indent).append("  ");
+                appendString(json, entry.getKey().toString());
+                json.append(": ");
+                append(json, entry.getValue(), indent + "  ");
+                json.append(++i < map.size() ? ",\n" : "\n");
+            }
+            json.append(indent).append('}');
+        } else if (value instanceof List) {
+            appendList(json, (List<?>) value, indent);
+        } else if (value instanceof Double || value instanceof Float) {
+            final String number = formatNumber(((Number) value).doubleValue());
+            json.append(number.isEmpty() ? "null" : number);
+        } else if (value instanceof Number || value instanceof Boolean) {
+            json.append(value);
+        } else {
+            appendString(json, value.toString());
+        }
+    }
+
+    private static void appendList(final StringBuilder json, final List<?> list, final String indent) {
+        boolean numbers = true;
+        for (final Object element : list) {
+            numbers &= element instanceof Number;
+        }
+        if (list.isEmpty() || numbers) {
+            /* series of numbers are kept on a single line */
+            json.append('[');
+            for (int i = 0; i < list.size(); i++) {
+                json.append(i > 0 ? ", " : "");
+                append(json, list.get(i), indent);
+            }
+            json.append(']');
+            return;
+        }
+        json.append("[\n");
+        for (int i = 0; i < list.size(); i++) {
+            json.append(indent).append("  ");
+            append(json, list.get(i), indent + "  ");
+            json.append(i < list.size() - 1 ? ",\n" : "\n");
+        }
+        json.append(indent).append(']');
+    }
+
+    private static void appendString(final StringBuilder json, final String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            switch (c) {
+            case '"':
+                json.append("\\\"");
+                break;
+            case '\\':
+                json.append("\\\\");
+                break;
+            case '\n':
+                json.append("\\n");
+                break;
+            case '\r':
+                json.append("\\r");
+                break;
+            case '\t':
+                json.append("\\t");
+                break;
+            default:
+                if (c < 0x20) {
+                    json.append(String.format("\\u%04x", (int) c));
+                } else {
+                    json.append(c);
+                }
+            }
+        }
+        json.append('"');
+    }
+
+    private Object readValue() {
+        skipWhitespace();
+        if (pos >= text.length()) {
+            throw error("Unexpected end of document");
+        }
+        final char c = text.charAt(pos);
+        switch (c) {
+        case '{':
+            return readObject();
+        case '[':
+            return readArray();
+        case '"':
+            return readString();
+        default:
+            if (text.startsWith("null", pos)) {
+                pos += 4;
+                return null;
+            } else if (text.startsWith("true", pos)) {
+                pos += 4;
+                return Boolean.TRUE;
+            } else if (text.startsWith("false", pos)) {
+                pos += 5;
+                return Boolean.FALSE;
+            }
+            return readNumber();
+        }
+    }
+
+    private Map<String, Object> readObject() {
+        final Map<String, Object> map = new LinkedHashMap<>();
+        pos++;
+        skipWhitespace();
+        if (peek() == '}') {
+            pos++;
+            return map;
+        }
+        while (true) {
+            skipWhitespace();
+            if (peek() != '"') {
+                throw error("Expected a name");
+            }
+            final String name = readString();
+            skipWhitespace();
+            expect(':');
+            map.put(name, readValue());
+            skipWhitespace();
+            if (peek() == ',') {
+                pos++;
+            } else {
+                expect('}');
+                return map;
+            }
+        }
+    }
+
+    private List<Object> readArray() {
+        final List<Object> list = new ArrayList<>();
+        pos++;
+        skipWhitespace();
+        if (peek() == ']') {
+            pos++;
+            return list;
+        }
+        while (true) {
+            list.add(readValue());
+            skipWhitespace();
+            if (peek() == ',') {
+                pos++;
+            } else {
+                expect(']');
+                return list;
+            }
+        }
+    }
+
+    private String readString() {
+        final StringBuilder value = new StringBuilder();
+        pos++;
+        while (pos < text.length()) {
+            final char c = text.charAt(pos++);
+            if (c == '"') {
+                return value.toString();
+            } else if (c != '\\') {
+                value.append(c);
+            } else if (pos < text.length()) {
+                final char escaped = text.charAt(pos++);
+                switch (escaped) {
+                case 'n':
+                    value.append('\n');
+                    break;
+                case 'r':
+                    value.append('\r');
+                    break;
+                case 't':
+                    value.append('\t');
+                    break;
+                case 'b':
+                    value.append('\b');
+                    break;
+                case 'f':
+                    value.append('\f');
+                    break;
+                case 'u':
+                    if (pos + 4 > text.length()) {
+                        throw error("Invalid escape sequence");
+                    }
+                    value.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+                    pos += 4;
+                    break;
+                default:
+                    value.append(escaped);
+                }
+            }
+        }
+        throw error("Unterminated string");
+    }
+
+    private Number readNumber() {
+        final int start = pos;
+        while (pos < text.length() && "+-0123456789.eE".indexOf(text.charAt(pos)) >= 0) {
+            pos++;
+        }
+        final String number = text.substring(start, pos);
+        try {
+            if (number.indexOf('.') < 0 && number.indexOf('e') < 0 && number.indexOf('E') < 0) {
+                return Long.parseLong(number);
+            }
+            return Double.parseDouble(number);
+        } catch (final NumberFormatException e) {
+            throw error("Invalid value");
+        }
+    }
+
+    private char peek() {
+        return pos < text.length() ? text.charAt(pos) : 0;
+    }
+
+    private void expect(final char c) {
+        if (peek() != c) {
+            throw error("Expected '" + c + "'");
+        }
+        pos++;
+    }
+
+    private void skipWhitespace() {
+        while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+            pos++;
+        }
+    }
+
+    private IllegalArgumentException error(final String message) {
+        return new IllegalArgumentException(message + " at position " + pos + " of the JSON document");
+    }
+}
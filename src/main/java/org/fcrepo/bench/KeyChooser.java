@@ -0,0 +1,237 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.bench;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Chooses which of the prepared objects an action is performed on. All
+ * choosers are thread safe without locking and do not allocate when choosing
+ * an object: the random numbers are drawn from {@link ThreadLocalRandom} and
+ * the distributions' constants are computed up front.
+ * <p>
+ * The following distributions are supported:
+ * <ul>
+ * <li><code>sequential</code> uses every object in turn</li>
+ * <li><code>uniform</code> chooses every object with the same probability</li>
+ * <li><code>zipfian[:theta]</code> chooses few objects very often and most
+ * objects rarely. The popular objects are scattered over all objects.</li>
+ * <li><code>hotspot[:ops:keys]</code> performs ops percent of the actions on
+ * keys percent of the objects</li>
+ * <li><code>latest[:theta]</code> is zipfian with the most recently prepared
+ * objects being the most popular</li>
+ * </ul>
+ */
+public abstract class KeyChooser {
+
+    private static final double DEFAULT_THETA = 0.99d;
+
+    private static final double DEFAULT_HOT_OPS = 90d;
+
+    private static final double DEFAULT_HOT_KEYS = 10d;
+
+    protected final int n;
+
+    protected KeyChooser(final int n) {
+        super();
+        if (n <= 0) {
+            throw new IllegalArgumentException("At least one object is required");
+        }
+        this.n = n;
+    }
+
+    /**
+     * @return the index of the next object, between 0 and n - 1
+     */
+    public abstract int next();
+
+    /**
+     * Create a chooser from a specification like <code>zipfian:0.9</code>
+     *
+     * @param spec the name of the distribution and its parameters separated
+     *        by colons
+     * @param n the number of objects to choose from
+     */
+    public static KeyChooser create(final String spec, final int n) {
+        final String[] parts = spec.trim().toLowerCase().split(":");
+        switch (parts[0]) {
+        case "sequential":
+            checkParameters(parts, 0);
+            return new Sequential(n);
+        case "uniform":
+            checkParameters(parts, 0);
+            return new Uniform(n);
+        case "zipfian":
+            checkParameters(parts, 1);
+            return new Zipfian(n, getParameter(parts, 1, DEFAULT_THETA), true);
+        case "latest":
+            checkParameters(parts, 1);
+            return new Latest(n, getParameter(parts, 1, DEFAULT_THETA));
+        case "hotspot":
+            checkParameters(parts, 2);
+            return new Hotspot(n, getParameter(parts, 1, DEFAULT_HOT_OPS) / 100d, getParameter(parts, 2,
+                    DEFAULT_HOT_KEYS) / 100d);
+        default:
+            throw new IllegalArgumentException("Unknown key distribution " + spec +
+                    ", expected one of sequential, uniform, zipfian, hotspot or latest");
+        }
+    }
+
+    private static void checkParameters(final String[] parts, final int max) {
+        if (parts.length - 1 > max) {
+            throw new IllegalArgumentException("The key distribution " + parts[0] + " takes at most " + max +
+                    " parameter(s)");
+        }
+    }
+
+    private static double getParameter(final String[] parts, final int index, final double defaultValue) {
+        return parts.length > index ? Double.parseDouble(parts[index]) : defaultValue;
+    }
+
+    private static class Sequential extends KeyChooser {
+
+        private final AtomicLong next = new AtomicLong();
+
+        private Sequential(final int n) {
+            super(n);
+        }
+
+        @Override
+        public int next() {
+            return (int) ((next.getAndIncrement() & Long.MAX_VALUE) % n);
+        }
+    }
+
+    private static class Uniform extends KeyChooser {
+
+        private Uniform(final int n) {
+            super(n);
+        }
+
+        @Override
+        public int next() {
+            return ThreadLocalRandom.current().nextInt(n);
+        }
+    }
+
+    /**
+     * Zipfian distribution following Gray et al., "Quickly Generating
+     * Billion-Record Synthetic Databases". The rank is optionally scrambled
+     * using a hash, so that the popular objects are not next to each other.
+     */
+    private static class Zipfian extends KeyChooser {
+
+        private final double theta;
+
+        private final double zetan;
+
+        private final double alpha;
+
+        private final double eta;
+
+        private final boolean scrambled;
+
+        private Zipfian(final int n, final double theta, final boolean scrambled) {
+            super(n);
+            if (theta <= 0 || theta >= 1) {
+                throw new IllegalArgumentException("The skew of a zipfian distribution has to be between 0 and 1");
+            }
+            this.theta = theta;
+            this.scrambled = scrambled;
+            this.zetan = zeta(n, theta);
+            this.alpha = 1d / (1d - theta);
+            this.eta = (1d - Math.pow(2d / n, 1d - theta)) / (1d - zeta(2, theta) / zetan);
+        }
+
+        private static double zeta(final int n, final double theta) {
+            double sum = 0;
+            for (int i = 1; i <= n; i++) {
+                sum += 1d / Math.pow(i, theta);
+            }
+            return sum;
+        }
+
+        /**
+         * @return the rank of the next object, 0 being the most popular one
+         */
+        protected int nextRank() {
+            final double u = ThreadLocalRandom.current().nextDouble();
+            final double uz = u * zetan;
+            if (uz < 1d) {
+                return 0;
+            }
+            if (uz < 1d + Math.pow(0.5d, theta)) {
+                return Math.min(1, n - 1);
+            }
+            return Math.min((int) (n * Math.pow(eta * u - eta + 1d, alpha)), n - 1);
+        }
+
+        @Override
+        public int next() {
+            final int rank = nextRank();
+            if (!scrambled) {
+                return rank;
+            }
+            /* FNV-1a of the rank */
+            long hash = 0xcbf29ce484222325L;
+            for (int i = 0; i < 4; i++) {
+                hash ^= (rank >>> (i * 8)) & 0xff;
+                hash *= 0x100000001b3L;
+            }
+            return (int) ((hash & Long.MAX_VALUE) % n);
+        }
+    }
+
+    private static class Latest extends Zipfian {
+
+        private Latest(final int n, final double theta) {
+            super(n, theta, false);
+        }
+
+        @Override
+        public int next() {
+            return n - 1 - nextRank();
+        }
+    }
+
+    private static class Hotspot extends KeyChooser {
+
+        private final double hotOps;
+
+        private final int hotKeys;
+
+        private Hotspot(final int n, final double hotOps, final double hotKeys) {
+            super(n);
+            if (hotOps < 0 || hotOps > 1 || hotKeys <= 0 || hotKeys > 1) {
+                throw new IllegalArgumentException("The fractions of a hotspot distribution have to be " +
+                        "percentages");
+            }
+            this.hotOps = hotOps;
+            this.hotKeys = Math.max(1, (int) (n * hotKeys));
+        }
+
+        @Override
+        public int next() {
+            final ThreadLocalRandom random = ThreadLocalRandom.current();
+            if (hotKeys == n || random.nextDouble() < hotOps) {
+                return random.nextInt(hotKeys);
+            }
+            return hotKeys + random.nextInt(n - hotKeys);
+        }
+    }
+}
@@ -0,0 +1,433 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.bench;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.HdrHistogram.Histogram;
+import org.apache.http.pool.ConnPoolControl;
+import org.apache.http.pool.PoolStats;
+import org.fcrepo.bench.BenchTool.Action;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Exposes the live statistics of the current run, so the load generator can
+ * be scraped alongside Fedora itself. The metrics are served in the
+ * Prometheus text format at <code>/metrics</code> and registered as MBeans
+ * in the <code>org.fcrepo.bench</code> domain: one per action and one for the
+ * run with the actions in flight, the connection pool and the transaction
+ * latencies.
+ * <p>
+ * Sweeps and throughput searches create a new runner for every step, so the
+ * counters start over with every step like a restarted process.
+ */
+public class MetricsExporter implements HttpHandler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MetricsExporter.class);
+
+    private static final String DOMAIN = "org.fcrepo.bench";
+
+    private static final String PREFIX = "fcrepo_bench_";
+
+    private static final String[] QUANTILES = {"0.5", "0.9", "0.99", "0.999"};
+
+    private static final long SNAPSHOT_MAX_AGE = TimeUnit.SECONDS.toNanos(1);
+
+    private final int port;
+
+    private final List<ObjectName> mbeans = new ArrayList<>();
+
+    private volatile FCRepoBenchRunner runner;
+
+    private HttpServer server;
+
+    /**
+     * @param port the port to serve the metrics on
+     */
+    public MetricsExporter(final int port) {
+        super();
+        this.port = port;
+    }
+
+    /**
+     * Start serving the metrics and register the MBeans
+     */
+    public void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/metrics", this);
+        try {
+            final MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+            for (final Action action : Action.values()) {
+                register(mbeanServer, new ObjectName(DOMAIN + ":type=Action,name=" + action), new ActionMetrics(
+                        action), ActionMetricsMBean.class);
+            }
+            register(mbeanServer, new ObjectName(DOMAIN + ":type=Run"), new RunMetrics(), RunMetricsMBean.class);
+        } catch (final JMException e) {
+            throw new IOException("Unable to register the metrics MBeans", e);
+        }
+        server.start();
+        LOG.info("Serving metrics at http://localhost:{}/metrics", port);
+    }
+
+    private <T> void register(final MBeanServer mbeanServer, final ObjectName name, final T mbean,
+            final Class<T> type) throws JMException {
+        mbeanServer.registerMBean(new StandardMBean(mbean, type), name);
+        mbeans.add(name);
+    }
+
+    /**
+     * Stop serving the metrics and unregister the MBeans
+     */
+    public void stop() {
+        server.stop(0);
+        final MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+        for (final ObjectName name : mbeans) {
+            try {
+                mbeanServer.unregisterMBean(name);
+            } catch (final JMException e) {
+                LOG.warn("Unable to unregister the MBean {}", name, e);
+            }
+        }
+        mbeans.clear();
+    }
+
+    /**
+     * @param runner the runner whose statistics are exposed from now on
+     */
+    public void setRunner(final FCRepoBenchRunner runner) {
+        this.runner = runner;
+    }
+
+    @Override
+    public void handle(final HttpExchange exchange) throws IOException {
+        try {
+            final byte[] body = scrape().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * @return the current metrics in the Prometheus text format
+     */
+    String scrape() {
+        final StringBuilder text = new StringBuilder();
+        final BenchToolStatistics stats = getStatistics();
+
+        header(text, "actions_total", "counter", "The number of measured actions by action and status");
+        for (final Action action : Action.values()) {
+            final ActionStatistics s = stats.get(action);
+            final String labels = "action=\"" + getName(action) + "\",status=";
+            sample(text, "actions_total", labels + "\"ok\"", s.getCount() - s.getCorruptions());
+            sample(text, "actions_total", labels + "\"corrupt\"", s.getCorruptions());
+            sample(text, "actions_total", labels + "\"failed\"", s.getErrors());
+        }
+
+        header(text, "bytes_total", "counter", "The number of bytes transferred by action and direction");
+        for (final Action action : Action.values()) {
+            sample(text, "bytes_total", "action=\"" + getName(action) + "\",direction=\"" + getDirection(action) +
+                    "\"", stats.get(action).getBytes());
+        }
+
+        /* every snapshot drains and copies the histogram, so it is taken only once per action */
+        header(text, "action_latency_milliseconds", "summary", "The latency of the measured actions");
+        for (final ActionStatistics s : stats.getRecorded()) {
+            summary(text, "action_latency_milliseconds", "action=\"" + getName(s.getAction()) + "\",", s
+                    .getHistogram());
+        }
+
+        header(text, "actions_in_flight", "gauge", "The number of actions started but not yet finished");
+        sample(text, "actions_in_flight", null, stats.getInFlight());
+
+        final PoolStats pool = getPoolStats();
+        header(text, "connections", "gauge", "The connections of the client's pool by state");
+        sample(text, "connections", "state=\"leased\"", pool == null ? 0 : pool.getLeased());
+        sample(text, "connections", "state=\"available\"", pool == null ? 0 : pool.getAvailable());
+        sample(text, "connections", "state=\"pending\"", pool == null ? 0 : pool.getPending());
+        header(text, "connections_max", "gauge", "The maximum number of connections of the client's pool");
+        sample(text, "connections_max", null, pool == null ? 0 : pool.getMax());
+
+        final TransactionProfiler profiler = getProfiler();
+        if (profiler != null) {
+            header(text, "tx_create_milliseconds", "summary", "The time it took to create a transaction");
+            summary(text, "tx_create_milliseconds", "", profiler.getCreateHistogram());
+            header(text, "tx_finish_milliseconds", "summary",
+                    "The time it took to commit or roll back a transaction");
+            summary(text, "tx_finish_milliseconds", "", profiler.getFinishHistogram());
+            header(text, "tx_open_milliseconds", "summary",
+                    "The time between the creation of a transaction and its commit or rollback");
+            summary(text, "tx_open_milliseconds", "", profiler.getOpenTimeHistogram());
+        }
+        return text.toString();
+    }
+
+    private static void header(final StringBuilder text, final String name, final String type, final String help) {
+        text.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+        text.append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(final StringBuilder text, final String name, final String labels, final long value) {
+        text.append(PREFIX).append(name);
+        if (labels != null) {
+            text.append('{').append(labels).append('}');
+        }
+        text.append(' ').append(value).append('\n');
+    }
+
+    /**
+     * Append a histogram as a summary, the labels are either empty or end with
+     * a comma
+     */
+    private static void summary(final StringBuilder text, final String name, final String labels,
+            final Histogram histogram) {
+        for (final String quantile : QUANTILES) {
+            sample(text, name, labels + "quantile=\"" + quantile + "\"", histogram.getValueAtPercentile(Double
+                    .parseDouble(quantile) * 100d));
+        }
+        final String totals = labels.isEmpty() ? null : labels.substring(0, labels.length() - 1);
+        sample(text, name + "_sum", totals, Math.round(histogram.getMean() * histogram.getTotalCount()));
+        sample(text, name + "_count", totals, histogram.getTotalCount());
+    }
+
+    private static String getName(final Action action) {
+        return action.name().toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * @return whether the bytes of an action are received or sent
+     */
+    private static String getDirection(final Action action) {
+        switch (action) {
+        case READ:
+        case LIST:
+        case SPARQL_SELECT:
+        case READ_PROPERTY:
+            return "in";
+        default:
+            return "out";
+        }
+    }
+
+    private static PoolStats getPoolStats() {
+        final ConnPoolControl<?> pool = BenchTool.connectionPool;
+        return pool == null ? null : pool.getTotalStats();
+    }
+
+    private BenchToolStatistics getStatistics() {
+        final FCRepoBenchRunner current = runner;
+        return current == null ? new BenchToolStatistics() : current.getStatistics();
+    }
+
+    private TransactionProfiler getProfiler() {
+        final FCRepoBenchRunner current = runner;
+        return current == null ? null : current.getTransactionProfiler();
+    }
+
+    /**
+     * The statistics of a single action
+     */
+    public interface ActionMetricsMBean {
+
+        long getOk();
+
+        long getCorrupt();
+
+        long getFailed();
+
+        long getBytes();
+
+        long getLatencyP50();
+
+        long getLatencyP99();
+
+        long getLatencyMax();
+    }
+
+    /**
+     * The actions in flight, the connection pool and the transaction
+     * latencies of the current run
+     */
+    public interface RunMetricsMBean {
+
+        int getActionsInFlight();
+
+        long getErrors();
+
+        long getBytes();
+
+        int getConnectionsLeased();
+
+        int getConnectionsAvailable();
+
+        int getConnectionsPending();
+
+        long getTxCreateP50();
+
+        long getTxCreateP99();
+
+        long getTxFinishP50();
+
+        long getTxFinishP99();
+    }
+
+    private class ActionMetrics implements ActionMetricsMBean {
+
+        private final Action action;
+
+        private Histogram latencies;
+
+        private long latenciesTakenAt;
+
+        private ActionMetrics(final Action action) {
+            super();
+            this.action = action;
+        }
+
+        @Override
+        public long getOk() {
+            final ActionStatistics s = getStatistics().get(action);
+            return s.getCount() - s.getCorruptions();
+        }
+
+        @Override
+        public long getCorrupt() {
+            return getStatistics().get(action).getCorruptions();
+        }
+
+        @Override
+        public long getFailed() {
+            return getStatistics().get(action).getErrors();
+        }
+
+        @Override
+        public long getBytes() {
+            return getStatistics().get(action).getBytes();
+        }
+
+        @Override
+        public long getLatencyP50() {
+            return getLatencies().getValueAtPercentile(50d);
+        }
+
+        @Override
+        public long getLatencyP99() {
+            return getLatencies().getValueAtPercentile(99d);
+        }
+
+        @Override
+        public long getLatencyMax() {
+            return getLatencies().getMaxValue();
+        }
+
+        /**
+         * @return a snapshot of the latencies, which is shared by the
+         *         attributes read within a second, e.g. by the same poll of a
+         *         JMX client
+         */
+        private synchronized Histogram getLatencies() {
+            final long now = System.nanoTime();
+            if (latencies == null || now - latenciesTakenAt > SNAPSHOT_MAX_AGE) {
+                latencies = getStatistics().get(action).getHistogram();
+                latenciesTakenAt = now;
+            }
+            return latencies;
+        }
+    }
+
+    private class RunMetrics implements RunMetricsMBean {
+
+        @Override
+        public int getActionsInFlight() {
+            return getStatistics().getInFlight();
+        }
+
+        @Override
+        public long getErrors() {
+            return getStatistics().getErrors();
+        }
+
+        @Override
+        public long getBytes() {
+            return getStatistics().getBytes();
+        }
+
+        @Override
+        public int getConnectionsLeased() {
+            final PoolStats pool = getPoolStats();
+            return pool == null ? 0 : pool.getLeased();
+        }
+
+        @Override
+        public int getConnectionsAvailable() {
+            final PoolStats pool = getPoolStats();
+            return pool == null ? 0 : pool.getAvailable();
+        }
+
+        @Override
+        public int getConnectionsPending() {
+            final PoolStats pool = getPoolStats();
+            return pool == null ? 0 : pool.getPending();
+        }
+
+        @Override
+        public long getTxCreateP50() {
+            final TransactionProfiler profiler = getProfiler();
+            return profiler == null ? 0 : profiler.getCreateHistogram().getValueAtPercentile(50d);
+        }
+
+        @Override
+        public long getTxCreateP99() {
+            final TransactionProfiler profiler = getProfiler();
+            return profiler == null ? 0 : profiler.getCreateHistogram().getValueAtPercentile(99d);
+        }
+
+        @Override
+        public long getTxFinishP50() {
+            final TransactionProfiler profiler = getProfiler();
+            return profiler == null ? 0 : profiler.getFinishHistogram().getValueAtPercentile(50d);
+        }
+
+        @Override
+        public long getTxFinishP99() {
+            final TransactionProfiler profiler = getProfiler();
+            return profiler == null ? 0 : profiler.getFinishHistogram().getValueAtPercentile(99d);
+        }
+    }
+}
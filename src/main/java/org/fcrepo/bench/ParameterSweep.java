@@ -0,0 +1,285 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.bench;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.HdrHistogram.Histogram;
+import org.apache.commons.cli.ParseException;
+import org.fcrepo.bench.PreparationRunner.Step;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the benchmark once for every combination of thread count, binary size
+ * and number of actions per transaction and prints the resulting throughput
+ * and latency curve. The runs with the same binary size share the objects
+ * prepared for actions which leave them in their prepared state, so a sweep
+ * over the thread count prepares and purges the dataset only once.
+ * <p>
+ * For every curve over the thread count the knee is reported: the last thread
+ * count after which adding threads no longer increases the throughput in
+ * proportion while the p99 latency climbs.
+ */
+public class ParameterSweep {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ParameterSweep.class);
+
+    /*
+     * adding threads is considered to scale as long as the throughput grows by
+     * at least this fraction of the relative growth of the thread count
+     */
+    private static final double MIN_SCALING_EFFICIENCY = 0.5d;
+
+    private final List<String> arguments;
+
+    private final List<Long> threads;
+
+    private final List<Long> sizes;
+
+    private final List<Long> actionsPerTx;
+
+    private final List<Point> points = new ArrayList<>();
+
+    /**
+     * @param arguments the command line of every run without the swept
+     *        options
+     * @param threads the thread counts, or null to use the default
+     * @param sizes the binary sizes, or null to use the default
+     * @param actionsPerTx the numbers of actions per transaction, or null to
+     *        use the default
+     */
+    public ParameterSweep(final List<String> arguments, final String threads, final String sizes,
+            final String actionsPerTx) {
+        super();
+        this.arguments = arguments;
+        this.threads = new ArrayList<>(parseValues(threads));
+        if (this.threads.size() > 1) {
+            Collections.sort(this.threads);
+        }
+        this.sizes = parseValues(sizes);
+        this.actionsPerTx = parseValues(actionsPerTx);
+    }
+
+    /**
+     * @return whether an option value describes more than a single value
+     */
+    public static boolean isSweep(final String value) {
+        return value != null && (value.contains(",") || value.contains(".."));
+    }
+
+    /**
+     * Parse a comma separated list of values and ranges like
+     * <code>1..64</code>, which double the value from step to step. Sizes may
+     * use the usual suffixes, e.g. <code>1k..1m</code>.
+     *
+     * @return the values, or a list containing only null if the option is not
+     *         set
+     */
+    static List<Long> parseValues(final String spec) {
+        if (spec == null) {
+            return Collections.singletonList(null);
+        }
+        final List<Long> values = new ArrayList<>();
+        for (final String entry : spec.split(",")) {
+            final int range = entry.indexOf("..");
+            if (range < 0) {
+                values.add(BenchTool.getSizeFromArgument(entry.trim()));
+                continue;
+            }
+            final long from = BenchTool.getSizeFromArgument(entry.substring(0, range).trim());
+            final long to = BenchTool.getSizeFromArgument(entry.substring(range + 2).trim());
+            if (from <= 0 || to < from) {
+                throw new IllegalArgumentException("Range " + entry + " could not be parsed, expected from..to " +
+                        "with 0 < from <= to");
+            }
+            for (long value = from; value < to; value *= 2) {
+                values.add(value);
+            }
+            values.add(to);
+        }
+        return values;
+    }
+
+    /**
+     * Run the benchmark for every point of the sweep and log the curve
+     */
+    public void run() throws ParseException, IOException {
+        for (final Long size : sizes) {
+            final Map<List<Step>, PidPool> dataset = new HashMap<>();
+            for (int i = 0; i < actionsPerTx.size(); i++) {
+                for (int j = 0; j < threads.size(); j++) {
+                    final boolean lastUse = i == actionsPerTx.size() - 1 && j == threads.size() - 1;
+                    runPoint(threads.get(j), size, actionsPerTx.get(i), dataset, lastUse);
+                }
+            }
+        }
+        logCurve();
+    }
+
+    private void runPoint(final Long numThreads, final Long size, final Long tx,
+            final Map<List<Step>, PidPool> dataset, final boolean lastUse) throws ParseException, IOException {
+        final List<String> point = new ArrayList<>();
+        addArgument(point, "-t", numThreads);
+        addArgument(point, "-s", size);
+        addArgument(point, "-ta", tx);
+        LOG.info("Sweep: running with {}", point);
+        final List<String> args = new ArrayList<>(arguments);
+        args.addAll(point);
+        final FCRepoBenchRunner runner = BenchTool.createRunner(args.toArray(new String[args.size()]));
+        boolean completed = false;
+        try {
+            runner.setSharedPools(dataset);
+            runner.runBenchmark();
+            points.add(new Point(numThreads == null ? 1 : numThreads, size, tx, runner));
+            completed = true;
+        } finally {
+            try {
+                /* a failed run ends the sweep, so its dataset is not needed anymore either */
+                if (lastUse || !completed) {
+                    runner.purgeSharedPools();
+                }
+            } finally {
+                BenchTool.closeClients();
+            }
+        }
+    }
+
+    private static void addArgument(final List<String> args, final String option, final Long value) {
+        if (value != null) {
+            args.add(option);
+            args.add(String.valueOf(value));
+        }
+    }
+
+    private void logCurve() {
+        final boolean transactions = points.get(0).finish != null;
+        LOG.info("Sweep results (latencies in ms{}):", transactions ? ", finish is the commit or rollback latency"
+                : "");
+        LOG.info(formatRow(transactions, "threads", "size", "actions/tx", "actions/s", "MB/s", "p50", "p99",
+                "create p50", "finish p50", "finish p99", ""));
+        int start = 0;
+        while (start < points.size()) {
+            /* every combination of size and transaction size forms a curve over the thread count */
+            int end = start + 1;
+            while (end < points.size() && points.get(end).numThreads > points.get(end - 1).numThreads) {
+                end++;
+            }
+            final List<Point> curve = points.subList(start, end);
+            final int knee = findKnee(curve);
+            for (int i = 0; i < curve.size(); i++) {
+                final Point p = curve.get(i);
+                LOG.info(formatRow(transactions, p.numThreads, p.size == null ? "default" : FCRepoBenchRunner
+                        .convertSize(p.size), p.actionsPerTx == null ? "-" : p.actionsPerTx, FCRepoBenchRunner.FORMAT
+                        .format(p.throughput), FCRepoBenchRunner.FORMAT.format(p.megabytes), p.latency
+                        .getValueAtPercentile(50d), p.latency.getValueAtPercentile(99d), transactions ? p.create
+                        .getValueAtPercentile(50d) : "", transactions ? p.finish.getValueAtPercentile(50d) : "",
+                        transactions ? p.finish.getValueAtPercentile(99d) : "", i == knee ? "<- knee" : ""));
+            }
+            if (curve.size() > 1) {
+                if (knee < 0) {
+                    LOG.info("No knee found, the throughput still scales at {} thread(s)", curve.get(curve.size() -
+                            1).numThreads);
+                } else {
+                    LOG.info("Knee at {} thread(s): {} action(s)/sec with a p99 latency of {} ms", new Object[] {
+                            curve.get(knee).numThreads, FCRepoBenchRunner.FORMAT.format(curve.get(knee).throughput),
+                            curve.get(knee).latency.getValueAtPercentile(99d)});
+                }
+            }
+            start = end;
+        }
+    }
+
+    private static String formatRow(final boolean transactions, final Object... columns) {
+        final StringBuilder row = new StringBuilder();
+        for (int i = 0; i < columns.length - 1; i++) {
+            /* the transaction columns are left out of runs without transactions */
+            if (transactions || i < 7) {
+                row.append(String.format("%12s", columns[i]));
+            }
+        }
+        return row.append(' ').append(columns[columns.length - 1]).toString();
+    }
+
+    /**
+     * Find the knee of a throughput curve over an increasing thread count
+     *
+     * @return the index of the last point after which the throughput stops
+     *         scaling while the p99 latency climbs, or -1 if the throughput
+     *         scales up to the last point
+     */
+    static int findKnee(final List<Point> curve) {
+        for (int i = 1; i < curve.size(); i++) {
+            final Point previous = curve.get(i - 1);
+            final Point current = curve.get(i);
+            final double threadGrowth = (double) current.numThreads / previous.numThreads - 1d;
+            final double throughputGrowth =
+                    previous.throughput > 0 ? current.throughput / previous.throughput - 1d : 0d;
+            if (throughputGrowth < MIN_SCALING_EFFICIENCY * threadGrowth &&
+                    current.latency.getValueAtPercentile(99d) > previous.latency.getValueAtPercentile(99d)) {
+                return i - 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * The results of a single run of the sweep
+     */
+    static class Point {
+
+        private final long numThreads;
+
+        private final Long size;
+
+        private final Long actionsPerTx;
+
+        private final double throughput;
+
+        private final double megabytes;
+
+        private final Histogram latency;
+
+        private final Histogram create;
+
+        private final Histogram finish;
+
+        private Point(final long numThreads, final Long size, final Long actionsPerTx,
+                final FCRepoBenchRunner runner) {
+            super();
+            this.numThreads = numThreads;
+            this.size = size;
+            this.actionsPerTx = actionsPerTx;
+            final long testTime = Math.max(runner.getTestTime(), 1);
+            this.throughput = runner.getActionsMeasured() * 1000d / testTime;
+            this.megabytes = runner.getStatistics().getBytes() * 1000d / (1024d * 1024d * testTime);
+            this.latency =
+                    new Histogram(ActionStatistics.HIGHEST_TRACKABLE_VALUE, ActionStatistics.SIGNIFICANT_DIGITS);
+            for (final ActionStatistics actionStats : runner.getStatistics().getRecorded()) {
+                latency.add(actionStats.getHistogram());
+            }
+            final TransactionProfiler profiler = runner.getTransactionProfiler();
+            this.create = profiler == null ? null : profiler.getCreateHistogram();
+            this.finish = profiler == null ? null : profiler.getFinishHistogram();
+        }
+    }
+}
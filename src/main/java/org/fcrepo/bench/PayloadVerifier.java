@@ -0,0 +1,65 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.bench;
+
+import java.util.zip.CRC32;
+
+/**
+ * Verifies a payload while it is being read. The checksum of the received
+ * bytes and the checksum of the expected payload are both updated
+ * incrementally, chunk by chunk, so no reference data has to be kept in
+ * memory and the body is only read once.
+ */
+public class PayloadVerifier {
+
+    private final long size;
+
+    private final BenchToolInputStream expected;
+
+    private final CRC32 expectedChecksum = new CRC32();
+
+    private final CRC32 actualChecksum = new CRC32();
+
+    private long bytesRead;
+
+    /**
+     * @param size the expected size of the payload
+     * @param slice the slice the payload has been generated from
+     * @param seed the seed the payload has been generated with
+     */
+    public PayloadVerifier(final long size, final byte[] slice, final long seed) {
+        super();
+        this.size = size;
+        this.expected = new BenchToolInputStream(size, slice, seed);
+    }
+
+    /**
+     * Add a chunk of received bytes
+     */
+    public void update(final byte[] b, final int off, final int len) {
+        actualChecksum.update(b, off, len);
+        expected.update(expectedChecksum, len);
+        bytesRead += len;
+    }
+
+    /**
+     * @return true if the received bytes match the expected payload
+     */
+    public boolean isValid() {
+        return bytesRead == size && actualChecksum.getValue() == expectedChecksum.getValue();
+    }
+}
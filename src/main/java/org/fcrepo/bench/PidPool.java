@@ -0,0 +1,138 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.bench;
+
+import java.util.AbstractList;
+import java.util.List;
+
+import org.fcrepo.bench.PreparationRunner.Step;
+
+/**
+ * A set of objects which have been prepared the same way. Actions which leave
+ * an object in its prepared state share a pool and choose its objects using a
+ * {@link KeyChooser}, while an action which can only be performed once per
+ * object gets a pool of its own, which is exhausted once every object has been
+ * used.
+ * <p>
+ * The pids are derived from the pool's prefix and the index of the object
+ * when they are needed, so a pool takes the same amount of memory no matter
+ * how many objects it contains.
+ */
+public class PidPool {
+
+    private final List<Step> steps;
+
+    private final boolean consuming;
+
+    private final String prefix;
+
+    private int size;
+
+    private int next;
+
+    private KeyChooser chooser;
+
+    /**
+     * @param steps the steps required to prepare an object of the pool
+     * @param consuming whether every object can be used only once
+     * @param prefix the prefix of the pids, which has to be unique among all
+     *        pools
+     */
+    public PidPool(final List<Step> steps, final boolean consuming, final String prefix) {
+        super();
+        this.steps = steps;
+        this.consuming = consuming;
+        this.prefix = prefix;
+    }
+
+    /**
+     * @param count the number of objects to add to the pool
+     */
+    public void add(final int count) {
+        size += count;
+    }
+
+    /**
+     * @return the pid of the object with the given index
+     */
+    public String get(final int index) {
+        return prefix + "-" + index;
+    }
+
+    /**
+     * @return the number of objects in the pool
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Choose the objects of a pool which is not consuming using the given
+     * distribution once all objects have been added
+     *
+     * @param distribution the key distribution as accepted by
+     *        {@link KeyChooser#create(String, int)}
+     */
+    public void setKeyDistribution(final String distribution) {
+        if (!consuming) {
+            this.chooser = KeyChooser.create(distribution, size);
+        }
+    }
+
+    /**
+     * @return the pid to perform the next action on, or null if the pool is
+     *         exhausted
+     */
+    public String next() {
+        if (chooser != null) {
+            return get(chooser.next());
+        }
+        if (next == size) {
+            if (consuming) {
+                return null;
+            }
+            next = 0;
+        }
+        return get(next++);
+    }
+
+    public List<Step> getSteps() {
+        return steps;
+    }
+
+    /**
+     * @return a view of the pids of the pool
+     */
+    public List<String> getPids() {
+        return new AbstractList<String>() {
+
+            @Override
+            public String get(final int index) {
+                return PidPool.this.get(index);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    public boolean isConsuming() {
+        return consuming;
+    }
+}
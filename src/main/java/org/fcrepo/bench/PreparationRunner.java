@@ -0,0 +1,189 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.bench;
+
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ibm.icu.text.DecimalFormat;
+
+/**
+ * Runs the preparation and tear down steps of a benchmark on a dedicated
+ * worker pool. The steps for a single object are pipelined, i.e. a worker
+ * creates an object and its datastream right after each other, while the
+ * objects themselves are processed in parallel.
+ */
+public class PreparationRunner {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PreparationRunner.class);
+
+    private static final DecimalFormat FORMAT = new DecimalFormat("###.##");
+
+    private static final long PROGRESS_INTERVAL = TimeUnit.SECONDS.toNanos(10);
+
+    public static enum Step {
+        CREATE_OBJECT, CREATE_DATASTREAM, CREATE_PROPERTY, PURGE_OBJECT
+    };
+
+    private final FedoraRestClient fedora;
+
+    private final int numThreads;
+
+    private final SizeDistribution sizes;
+
+    public PreparationRunner(final FedoraRestClient fedora, final int numThreads, final SizeDistribution sizes) {
+        super();
+        this.fedora = fedora;
+        this.numThreads = numThreads;
+        this.sizes = sizes;
+    }
+
+    /**
+     * Perform the given steps for every pid. If a step fails for an object
+     * the remaining steps for that object are skipped.
+     *
+     * @param phase the name of the phase used for logging
+     * @param pids the pids of the objects
+     * @param tx the transaction to run the steps in if any
+     * @param steps the steps to perform for every object in order
+     * @throws IOException if the phase has been interrupted
+     */
+    public void run(final String phase, final List<String> pids, final TransactionState tx, final List<Step> steps)
+            throws IOException {
+        LOG.info("{}: performing {} on {} objects using {} thread(s)", new Object[] {phase, steps, pids.size(),
+                numThreads});
+        final Map<Step, StepStatistics> stats = new EnumMap<>(Step.class);
+        for (final Step step : steps) {
+            stats.put(step, new StepStatistics());
+        }
+        final AtomicLong completed = new AtomicLong();
+
+        /* bound the number of queued tasks so that progress can be reported accurately */
+        final int maxPending = numThreads * 2;
+        final Semaphore permits = new Semaphore(maxPending);
+        final ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        final long start = System.nanoTime();
+        long lastProgress = start;
+        try {
+            for (final String pid : pids) {
+                while (!permits.tryAcquire(PROGRESS_INTERVAL, TimeUnit.NANOSECONDS)) {
+                    lastProgress = logProgress(phase, completed.get(), pids.size(), start);
+                }
+                executor.execute(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        try {
+                            for (final Step step : steps) {
+                                if (!perform(step, pid, tx, stats.get(step))) {
+                                    break;
+                                }
+                            }
+                        } finally {
+                            completed.incrementAndGet();
+                            permits.release();
+                        }
+                    }
+                });
+                if (System.nanoTime() - lastProgress >= PROGRESS_INTERVAL) {
+                    lastProgress = logProgress(phase, completed.get(), pids.size(), start);
+                }
+            }
+            while (!permits.tryAcquire(maxPending, PROGRESS_INTERVAL, TimeUnit.NANOSECONDS)) {
+                logProgress(phase, completed.get(), pids.size(), start);
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted during " + phase, e);
+        } finally {
+            executor.shutdown();
+        }
+
+        final long duration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        LOG.info("{}: processed {} objects in {} ms ({} objects/sec)", new Object[] {phase, pids.size(), duration,
+                FORMAT.format(pids.size() * 1000f / Math.max(duration, 1))});
+        for (final Step step : steps) {
+            final StepStatistics s = stats.get(step);
+            final long count = s.count.get();
+            LOG.info("{}: {} {} time(s) in {} ms, {} failed, average {} ms{}", new Object[] {phase, step, count,
+                    s.time.get(), s.errors.get(), FORMAT.format(count == 0 ? 0 : s.time.get() / (float) count),
+                    step == Step.CREATE_DATASTREAM ? ", " + FORMAT.format(s.bytes.get() * 1000f /
+                            (1024f * 1024f * Math.max(duration, 1))) + " MB/sec" : ""});
+        }
+    }
+
+    private boolean perform(final Step step, final String pid, final TransactionState tx,
+            final StepStatistics stats) {
+        try {
+            final long time;
+            switch (step) {
+            case CREATE_OBJECT:
+                time = fedora.createObject(pid, tx);
+                break;
+            case CREATE_DATASTREAM:
+                final long size = sizes.sizeOf(pid);
+                time = fedora.createDatastream(pid, size, tx);
+                stats.bytes.addAndGet(size);
+                break;
+            case CREATE_PROPERTY:
+                time = fedora.sparqlInsert(pid, tx);
+                break;
+            case PURGE_OBJECT:
+                time = fedora.deleteObject(pid, tx);
+                break;
+            default:
+                throw new IllegalArgumentException("The step " + step + " is not available");
+            }
+            stats.count.incrementAndGet();
+            stats.time.addAndGet(time);
+            return true;
+        } catch (final IOException | UnsupportedOperationException e) {
+            stats.errors.incrementAndGet();
+            LOG.error("Unable to perform " + step + " for " + pid + " in Fedora", e);
+            return false;
+        }
+    }
+
+    private static long logProgress(final String phase, final long completed, final int total, final long start) {
+        final long now = System.nanoTime();
+        final float seconds = (now - start) / (float) TimeUnit.SECONDS.toNanos(1);
+        LOG.info("{}: {} of {} objects done ({} objects/sec)", new Object[] {phase, completed, total,
+                FORMAT.format(completed / seconds)});
+        return now;
+    }
+
+    private static class StepStatistics {
+
+        private final AtomicLong count = new AtomicLong();
+
+        private final AtomicLong time = new AtomicLong();
+
+        private final AtomicLong errors = new AtomicLong();
+
+        private final AtomicLong bytes = new AtomicLong();
+    }
+}
@@ -0,0 +1,219 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.bench;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.EnumMap;
+import java.util.Map;
+
+import org.HdrHistogram.Histogram;
+import org.fcrepo.bench.BenchTool.Action;
+
+/**
+ * A compact binary log of every measured request. After a header consisting
+ * of a magic number and a version every request takes 26 bytes: the time the
+ * action has been scheduled at in milliseconds since the epoch (long), the
+ * ordinal of the action (byte), the status (byte), the latency in
+ * milliseconds (int), the duration of the request, i.e. its service time, in
+ * milliseconds (int) and the number of bytes transferred (long). The latency
+ * is the one recorded in the statistics, so in open loop runs it is measured
+ * from the intended start time of the action.
+ * <p>
+ * The log is written through a large buffer by the thread collecting the
+ * results, never by the threads performing the actions, and is not thread
+ * safe. {@link #toCsv(String, PrintStream)} and
+ * {@link #toHistograms(String, PrintStream)} convert a log after the run.
+ */
+public class RequestLog implements Closeable {
+
+    public static final byte OK = 0;
+
+    public static final byte FAILED = 1;
+
+    public static final byte CORRUPT = 2;
+
+    static final int MAGIC = 0x46435242;
+
+    private static final int VERSION = 1;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final DataOutputStream out;
+
+    /**
+     * Receives the requests read from a log
+     */
+    public interface Visitor {
+
+        void visit(long timestamp, Action action, byte status, long latency, long duration, long bytes);
+    }
+
+    /**
+     * Create a new log, replacing an existing one
+     *
+     * @param path the path of the log file
+     */
+    public RequestLog(final String path) throws IOException {
+        this(new FileOutputStream(path));
+    }
+
+    /**
+     * Create a new log written to the given stream, which is closed with the
+     * log
+     *
+     * @param stream the stream to write the log to
+     */
+    RequestLog(final OutputStream stream) throws IOException {
+        super();
+        this.out = new DataOutputStream(new BufferedOutputStream(stream, BUFFER_SIZE));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+    }
+
+    /**
+     * Append a request to the log
+     *
+     * @param timestamp the time the action has been scheduled at in
+     *        milliseconds since the epoch
+     * @param action the action performed
+     * @param status one of {@link #OK}, {@link #FAILED} or {@link #CORRUPT}
+     * @param latency the latency of the action in milliseconds, or -1 if it
+     *        failed
+     * @param duration the duration of the request in milliseconds, or -1 if
+     *        it failed
+     * @param bytes the number of bytes transferred, or -1 if none
+     */
+    public void write(final long timestamp, final Action action, final byte status, final long latency,
+            final long duration, final long bytes) throws IOException {
+        out.writeLong(timestamp);
+        out.writeByte(action.ordinal());
+        out.writeByte(status);
+        out.writeInt((int) Math.min(latency, Integer.MAX_VALUE));
+        out.writeInt((int) Math.min(duration, Integer.MAX_VALUE));
+        out.writeLong(bytes);
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    /**
+     * Read every request of a log
+     */
+    public static void read(final String path, final Visitor visitor) throws IOException {
+        final Action[] actions = Action.values();
+        try (DataInputStream in =
+                new DataInputStream(new BufferedInputStream(new FileInputStream(path), BUFFER_SIZE))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(path + " is not a request log");
+            }
+            final int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported version " + version + " of the request log " + path);
+            }
+            while (true) {
+                final long timestamp;
+                try {
+                    timestamp = in.readLong();
+                } catch (final EOFException e) {
+                    return;
+                }
+                final int action = in.readUnsignedByte();
+                if (action >= actions.length) {
+                    throw new IOException("Unknown action " + action + " in the request log " + path);
+                }
+                final byte status = in.readByte();
+                final int latency = in.readInt();
+                final int duration = in.readInt();
+                visitor.visit(timestamp, actions[action], status, latency, duration, in.readLong());
+            }
+        }
+    }
+
+    /**
+     * Write a log as CSV with a header line
+     */
+    public static void toCsv(final String path, final PrintStream out) throws IOException {
+        out.println("timestamp,action,status,latency_ms,duration_ms,bytes");
+        read(path, new Visitor() {
+
+            @Override
+            public void visit(final long timestamp, final Action action, final byte status, final long latency,
+                    final long duration, final long bytes) {
+                out.println(timestamp + "," + action + "," + getStatusName(status) + "," + latency + "," +
+                        duration + "," + bytes);
+            }
+        });
+    }
+
+    /**
+     * Write the percentile distribution of the latencies of every action in
+     * the format of HdrHistogram, which can be plotted using its plotter
+     */
+    public static void toHistograms(final String path, final PrintStream out) throws IOException {
+        final Map<Action, Histogram> histograms = new EnumMap<>(Action.class);
+        final Map<Action, long[]> failures = new EnumMap<>(Action.class);
+        read(path, new Visitor() {
+
+            @Override
+            public void visit(final long timestamp, final Action action, final byte status, final long latency,
+                    final long duration, final long bytes) {
+                Histogram h = histograms.get(action);
+                if (h == null) {
+                    h = new Histogram(ActionStatistics.HIGHEST_TRACKABLE_VALUE, ActionStatistics.SIGNIFICANT_DIGITS);
+                    histograms.put(action, h);
+                    failures.put(action, new long[1]);
+                }
+                if (status == FAILED) {
+                    failures.get(action)[0]++;
+                } else {
+                    h.recordValue(Math.min(Math.max(latency, 0), ActionStatistics.HIGHEST_TRACKABLE_VALUE));
+                }
+            }
+        });
+        for (final Map.Entry<Action, Histogram> entry : histograms.entrySet()) {
+            out.println("# " + entry.getKey() + " latencies in ms, " + failures.get(entry.getKey())[0] +
+                    " failed request(s)");
+            entry.getValue().outputPercentileDistribution(out, 1d);
+            out.println();
+        }
+    }
+
+    private static String getStatusName(final byte status) {
+        switch (status) {
+        case OK:
+            return "ok";
+        case FAILED:
+            return "failed";
+        case CORRUPT:
+            return "corrupt";
+        default:
+            return String.valueOf(status);
+        }
+    }
+}
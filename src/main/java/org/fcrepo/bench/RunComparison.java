@@ -0,0 +1,464 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.bench;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.DataFormatException;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramIterationValue;
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.io.FileUtils;
+import org.fcrepo.bench.BenchTool.Action;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compares a candidate run against a baseline run and decides whether the
+ * candidate regressed. A run is read from a JSON report written using
+ * --json-report, a request log written using --request-log or a durations log.
+ * <p>
+ * The latencies are compared using a one-sided Mann-Whitney U test on the
+ * latency histograms, which does not assume any shape of the distributions.
+ * The throughput is compared using a one-sided Welch's t-test on the number
+ * of actions completed in every second of the runs, which is not available
+ * for durations logs. Since consecutive seconds of a run are not independent
+ * the throughput test tends to overstate the significance, so a regression
+ * additionally has to exceed the threshold. A regression is reported if the
+ * difference is significant and the median latency increased, or the mean
+ * throughput decreased, by more than the threshold.
+ */
+public class RunComparison {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RunComparison.class);
+
+    private final double threshold;
+
+    private final double significance;
+
+    /**
+     * @param threshold the relative change which is considered a regression,
+     *        e.g. 0.05 for five percent
+     * @param significance the significance level of the tests, e.g. 0.05
+     */
+    public RunComparison(final double threshold, final double significance) {
+        super();
+        if (threshold < 0 || significance <= 0 || significance >= 1) {
+            throw new IllegalArgumentException("The threshold has to be positive and the significance level has " +
+                    "to be between 0 and 1");
+        }
+        this.threshold = threshold;
+        this.significance = significance;
+    }
+
+    /**
+     * Compare the runs and log the results
+     *
+     * @param baselinePath the report or log of the baseline run
+     * @param candidatePath the report or log of the candidate run
+     * @return whether the candidate regressed
+     */
+    public boolean compare(final String baselinePath, final String candidatePath) throws IOException {
+        final Run baseline = load(baselinePath);
+        final Run candidate = load(candidatePath);
+        final Histogram b = baseline.latencies;
+        final Histogram c = candidate.latencies;
+        if (b.getTotalCount() == 0 || c.getTotalCount() == 0) {
+            throw new IOException("No latencies have been recorded in " + (b.getTotalCount() == 0 ? baselinePath
+                    : candidatePath));
+        }
+
+        LOG.info("Comparing {} against the baseline {}", candidatePath, baselinePath);
+        LOG.info(String.format("%16s %12s %12s %12s", "", "baseline", "candidate", "change"));
+        for (final double percentile : new double[] {50d, 90d, 99d, 99.9d}) {
+            logRow("p" + FCRepoBenchRunner.FORMAT.format(percentile) + " ms", b.getValueAtPercentile(percentile), c
+                    .getValueAtPercentile(percentile));
+        }
+        logRow("mean ms", b.getMean(), c.getMean());
+        logRow("actions", b.getTotalCount(), c.getTotalCount());
+
+        boolean regression = false;
+        final double[] u = mannWhitney(b, c);
+        final double latencyChange = getChange(b.getValueAtPercentile(50d), c.getValueAtPercentile(50d));
+        final boolean latencyRegression = u[0] < significance && latencyChange > threshold;
+        LOG.info("Latency: Mann-Whitney U test p={}, the candidate is slower than the baseline in {}% of the " +
+                "pairs of actions, the median changed by {}%: {}", new Object[] {formatP(u[0]), FCRepoBenchRunner
+                .FORMAT.format(u[1] * 100d), FCRepoBenchRunner.FORMAT.format(latencyChange * 100d),
+                latencyRegression ? "REGRESSION" : "no significant regression"});
+        regression |= latencyRegression;
+
+        final long[] bt = baseline.getCompleteSeconds();
+        final long[] ct = candidate.getCompleteSeconds();
+        if (bt.length < 2 || ct.length < 2) {
+            LOG.warn("Throughput: not compared, at least two complete seconds of both runs are needed and " +
+                    "durations logs do not contain any");
+        } else {
+            final double bm = mean(bt);
+            final double cm = mean(ct);
+            logRow("actions/sec", bm, cm);
+            final double p = welch(bt, ct);
+            final double throughputChange = getChange(bm, cm);
+            final boolean throughputRegression = p < significance && -throughputChange > threshold;
+            LOG.info("Throughput: Welch's t-test p={} over {} and {} second(s), the mean changed by {}%: {}",
+                    new Object[] {formatP(p), bt.length, ct.length, FCRepoBenchRunner.FORMAT.format(
+                            throughputChange * 100d), throughputRegression ? "REGRESSION"
+                            : "no significant regression"});
+            regression |= throughputRegression;
+        }
+        LOG.info("Threshold {}%, significance level {}: {}", new Object[] {FCRepoBenchRunner.FORMAT.format(
+                threshold * 100d), significance, regression ? "the candidate regressed"
+                : "no regression found"});
+        return regression;
+    }
+
+    private static void logRow(final String name, final double baseline, final double candidate) {
+        LOG.info(String.format("%16s %12s %12s %11s%%", name, FCRepoBenchRunner.FORMAT.format(baseline),
+                FCRepoBenchRunner.FORMAT.format(candidate), FCRepoBenchRunner.FORMAT.format(getChange(baseline,
+                        candidate) * 100d)));
+    }
+
+    private static double getChange(final double baseline, final double candidate) {
+        /* latencies below a millisecond are recorded as 0 */
+        return (candidate - baseline) / Math.max(baseline, 1d);
+    }
+
+    private static String formatP(final double p) {
+        return p < 0.0001 ? "<0.0001" : String.format(Locale.ENGLISH, "%.4f", p);
+    }
+
+    /**
+     * Read a run from a JSON report, a request log or a durations log
+     */
+    static Run load(final String path) throws IOException {
+        final int magic;
+        try (DataInputStream in = new DataInputStream(new FileInputStream(path))) {
+            magic = in.available() >= 4 ? in.readInt() : 0;
+        }
+        if (magic == RequestLog.MAGIC) {
+            return loadRequestLog(path);
+        } else if ((magic >>> 24) == '{') {
+            return loadReport(path);
+        }
+        return loadDurations(path);
+    }
+
+    private static Run loadRequestLog(final String path) throws IOException {
+        final RequestLogLoader loader = new RequestLogLoader();
+        RequestLog.read(path, loader);
+        return loader.getRun();
+    }
+
+    private static Run loadReport(final String path) throws IOException {
+        final Run run = new Run();
+        try {
+            final Map<?, ?> report = (Map<?, ?>) Json.parse(FileUtils.readFileToString(new File(path),
+                    StandardCharsets.UTF_8.name()));
+            final Object version = report.get("report_version");
+            if (!(version instanceof Long) || (Long) version > RunReport.VERSION) {
+                throw new IOException("Unsupported version " + version + " of the report " + path);
+            }
+            final Map<?, ?> results = (Map<?, ?>) report.get("results");
+            final Object histogram = results.get("latency_histogram");
+            if (histogram == null) {
+                throw new IOException("The report " + path + " does not contain a latency histogram");
+            }
+            run.latencies.add(Histogram.decodeFromCompressedByteBuffer(ByteBuffer.wrap(Base64.decodeBase64(
+                    histogram.toString())), ActionStatistics.HIGHEST_TRACKABLE_VALUE));
+            final Object throughput = results.get("actions_per_second");
+            if (throughput instanceof List) {
+                final List<?> samples = (List<?>) throughput;
+                run.throughput = new long[samples.size()];
+                for (int i = 0; i < samples.size(); i++) {
+                    run.throughput[i] = ((Number) samples.get(i)).longValue();
+                }
+                run.seconds = samples.size();
+            }
+        } catch (final IllegalArgumentException | ClassCastException | NullPointerException |
+                DataFormatException e) {
+            throw new IOException("Unable to read the report " + path, e);
+        }
+        return run;
+    }
+
+    private static Run loadDurations(final String path) throws IOException {
+        final Run run = new Run();
+        try (BufferedReader reader =
+                new BufferedReader(new InputStreamReader(new FileInputStream(path), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (!line.isEmpty()) {
+                    try {
+                        run.record(Long.parseLong(line));
+                    } catch (final NumberFormatException e) {
+                        throw new IOException(path + " is neither a report, a request log nor a durations log", e);
+                    }
+                }
+            }
+        }
+        return run;
+    }
+
+    /**
+     * One-sided Mann-Whitney U test whether the candidate's latencies tend to
+     * be larger, using the normal approximation with a correction for ties.
+     * Values in the same bucket of the histograms are treated as ties.
+     *
+     * @return the p-value and the probability that the latency of a
+     *         candidate's action is larger than the latency of a baseline's
+     *         action, counting ties as half
+     */
+    static double[] mannWhitney(final Histogram baseline, final Histogram candidate) {
+        final TreeMap<Long, long[]> counts = new TreeMap<>();
+        addCounts(counts, baseline, 0);
+        addCounts(counts, candidate, 1);
+        final double nb = baseline.getTotalCount();
+        final double nc = candidate.getTotalCount();
+        final double n = nb + nc;
+        double ranked = 0;
+        double rankSum = 0;
+        double ties = 0;
+        for (final long[] count : counts.values()) {
+            final double t = count[0] + count[1];
+            /* every value of a tie gets the mean of the ranks of the tie */
+            rankSum += count[1] * (ranked + (t + 1d) / 2d);
+            ties += t * t * t - t;
+            ranked += t;
+        }
+        final double u = rankSum - nc * (nc + 1d) / 2d;
+        final double mean = nb * nc / 2d;
+        final double variance = nb * nc / 12d * ((n + 1d) - ties / (n * (n - 1d)));
+        final double p = variance <= 0 ? 0.5d : 1d - normalCdf((u - mean - 0.5d) / Math.sqrt(variance));
+        return new double[] {p, u / (nb * nc)};
+    }
+
+    private static void addCounts(final TreeMap<Long, long[]> counts, final Histogram histogram, final int index) {
+        for (final HistogramIterationValue value : histogram.recordedValues()) {
+            long[] count = counts.get(value.getValueIteratedTo());
+            if (count == null) {
+                count = new long[2];
+                counts.put(value.getValueIteratedTo(), count);
+            }
+            count[index] += value.getCountAtValueIteratedTo();
+        }
+    }
+
+    /**
+     * One-sided Welch's t-test whether the candidate's mean is lower
+     *
+     * @return the p-value
+     */
+    static double welch(final long[] baseline, final long[] candidate) {
+        final double vb = variance(baseline) / baseline.length;
+        final double vc = variance(candidate) / candidate.length;
+        if (vb + vc == 0) {
+            return mean(candidate) < mean(baseline) ? 0d : 1d;
+        }
+        final double t = (mean(baseline) - mean(candidate)) / Math.sqrt(vb + vc);
+        final double df =
+                (vb + vc) * (vb + vc) / (vb * vb / (baseline.length - 1) + vc * vc / (candidate.length - 1));
+        return studentTail(t, df);
+    }
+
+    private static double mean(final long[] values) {
+        double sum = 0;
+        for (final long value : values) {
+            sum += value;
+        }
+        return sum / values.length;
+    }
+
+    private static double variance(final long[] values) {
+        final double mean = mean(values);
+        double sum = 0;
+        for (final long value : values) {
+            sum += (value - mean) * (value - mean);
+        }
+        return sum / (values.length - 1);
+    }
+
+    /**
+     * @return the probability that a standard normal variable is at most z
+     */
+    static double normalCdf(final double z) {
+        /* the complementary error function with a fractional error below 1.2e-7 */
+        final double x = Math.abs(z) / Math.sqrt(2d);
+        final double t = 1d / (1d + 0.5d * x);
+        final double erfc =
+                t * Math.exp(-x * x - 1.26551223 + t * (1.00002368 + t * (0.37409196 + t * (0.09678418 + t *
+                        (-0.18628806 + t * (0.27886807 + t * (-1.13520398 + t * (1.48851587 + t * (-0.82215223 +
+                                t * 0.17087277)))))))));
+        return z >= 0 ? 1d - erfc / 2d : erfc / 2d;
+    }
+
+    /**
+     * @return the probability that a variable of Student's t-distribution
+     *         with the given degrees of freedom is larger than t
+     */
+    static double studentTail(final double t, final double df) {
+        final double tail = 0.5d * regularizedBeta(df / (df + t * t), df / 2d, 0.5d);
+        return t >= 0 ? tail : 1d - tail;
+    }
+
+    private static double regularizedBeta(final double x, final double a, final double b) {
+        if (x <= 0) {
+            return 0d;
+        } else if (x >= 1) {
+            return 1d;
+        }
+        final double front =
+                Math.exp(logGamma(a + b) - logGamma(a) - logGamma(b) + a * Math.log(x) + b * Math.log(1d - x));
+        /* the continued fraction converges quickly below this point, use the symmetry above it */
+        if (x < (a + 1d) / (a + b + 2d)) {
+            return front * betaFraction(x, a, b) / a;
+        }
+        return 1d - front * betaFraction(1d - x, b, a) / b;
+    }
+
+    /**
+     * Evaluate the continued fraction of the incomplete beta function using
+     * the modified Lentz's method
+     */
+    private static double betaFraction(final double x, final double a, final double b) {
+        final double tiny = 1e-300;
+        double c = 1d;
+        double d = 1d - (a + b) * x / (a + 1d);
+        d = 1d / (Math.abs(d) < tiny ? tiny : d);
+        double h = d;
+        for (int m = 1; m <= 300; m++) {
+            final int m2 = 2 * m;
+            double aa = m * (b - m) * x / ((a + m2 - 1d) * (a + m2));
+            d = 1d + aa * d;
+            d = 1d / (Math.abs(d) < tiny ? tiny : d);
+            c = 1d + aa / c;
+            c = Math.abs(c) < tiny ? tiny : c;
+            h *= d * c;
+            aa = -(a + m) * (a + b + m) * x / ((a + m2) * (a + m2 + 1d));
+            d = 1d + aa * d;
+            d = 1d / (Math.abs(d) < tiny ? tiny : d);
+            c = 1d + aa / c;
+            c = Math.abs(c) < tiny ? tiny : c;
+            final double delta = d * c;
+            h *= delta;
+            if (Math.abs(delta - 1d) < 1e-12) {
+                break;
+            }
+        }
+        return h;
+    }
+
+    /**
+     * @return the logarithm of the gamma function using the Lanczos
+     *         approximation
+     */
+    private static double logGamma(final double x) {
+        final double[] coefficients = {76.18009172947146, -86.50532032941677, 24.01409824083091,
+            -1.231739572450155, 0.1208650973866179e-2, -0.5395239384953e-5};
+        double y = x;
+        final double tmp = x + 5.5d - (x + 0.5d) * Math.log(x + 5.5d);
+        double series = 1.000000000190015;
+        for (final double coefficient : coefficients) {
+            series += coefficient / ++y;
+        }
+        return -tmp + Math.log(2.5066282746310005 * series / x);
+    }
+
+    /**
+     * Reads the latencies of a request log and counts every action in the
+     * second it has been completed in, i.e. the time it has been scheduled at
+     * plus its latency. The seconds start with the earliest scheduled action,
+     * which is not necessarily the first one logged.
+     */
+    private static class RequestLogLoader implements RequestLog.Visitor {
+
+        private final Run run = new Run();
+
+        private long[] completions = new long[1024];
+
+        private int count;
+
+        private long first = Long.MAX_VALUE;
+
+        @Override
+        public void visit(final long timestamp, final Action action, final byte status, final long latency,
+                final long duration, final long bytes) {
+            if (status != RequestLog.FAILED) {
+                run.record(latency);
+                if (count == completions.length) {
+                    completions = Arrays.copyOf(completions, count * 2);
+                }
+                completions[count++] = timestamp + latency;
+                first = Math.min(first, timestamp);
+            }
+        }
+
+        private Run getRun() {
+            for (int i = 0; i < count; i++) {
+                run.countCompleted((int) ((completions[i] - first) / 1000));
+            }
+            return run;
+        }
+    }
+
+    /**
+     * The latencies and the number of actions completed per second of a run
+     */
+    static class Run {
+
+        private final Histogram latencies =
+                new Histogram(ActionStatistics.HIGHEST_TRACKABLE_VALUE, ActionStatistics.SIGNIFICANT_DIGITS);
+
+        private long[] throughput = new long[0];
+
+        private int seconds;
+
+        private void record(final long latency) {
+            latencies.recordValue(Math.min(Math.max(latency, 0), ActionStatistics.HIGHEST_TRACKABLE_VALUE));
+        }
+
+        /**
+         * Count an action in the second of the run it has been completed in
+         */
+        private void countCompleted(final int second) {
+            if (second >= throughput.length) {
+                throughput = Arrays.copyOf(throughput, Math.max(second + 1, throughput.length * 2));
+            }
+            throughput[second]++;
+            seconds = Math.max(seconds, second + 1);
+        }
+
+        /**
+         * @return the number of actions completed per second without the
+         *         last second, which is usually incomplete
+         */
+        private long[] getCompleteSeconds() {
+            return Arrays.copyOf(throughput, Math.max(seconds - 1, 0));
+        }
+    }
+}
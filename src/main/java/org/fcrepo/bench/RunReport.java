@@ -0,0 +1,266 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.bench;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+
+import org.HdrHistogram.Histogram;
+import org.apache.commons.codec.binary.Base64;
+import org.fcrepo.bench.BenchTool.Action;
+
+/**
+ * The machine readable results of a run. The report is written as a JSON
+ * document containing the parameters of the run, the Fedora instance, the
+ * overall results, the statistics of every action and the transaction
+ * timings, and as a CSV row whose columns are the same for every kind of run.
+ * Both carry {@link #VERSION}, which is incremented whenever a field is
+ * renamed or removed, so parsers can rely on the layout of a version.
+ * <p>
+ * The JSON report additionally contains the latency histogram of the
+ * workload's actions and the number of actions completed in every second of
+ * the run, which let {@link RunComparison} test two runs for a significant
+ * difference.
+ */
+public class RunReport {
+
+    public static final int VERSION = 1;
+
+    private static final Set<Action> TX_ACTIONS = EnumSet.of(Action.CREATE_TX, Action.COMMIT_TX,
+            Action.ROLLBACK_TX);
+
+    private static final String CSV_HEADER = "report_version,started_at,fedora_version,fedora_url,workload,size," +
+            "num_actions,threads,agents,engine,rate,duration_s,warmup_s,tx_mode,actions_per_tx,parallel_tx," +
+            "cluster_size_before,cluster_size_after,actions,errors,corruptions,test_time_ms,actions_per_sec," +
+            "mb_per_sec,p50_ms,p90_ms,p99_ms,p999_ms,max_ms,tx_create_time_ms,tx_commit_time_ms,tx_create_p50_ms," +
+            "tx_create_p99_ms,tx_finish_p50_ms,tx_finish_p99_ms\n";
+
+    private final Map<String, Object> report = new LinkedHashMap<>();
+
+    private final List<Object> row = new ArrayList<>();
+
+    /**
+     * Create the report of a completed run
+     *
+     * @param runner the runner which performed the run
+     */
+    public RunReport(final FCRepoBenchRunner runner) {
+        super();
+        final Map<String, Object> parameters = runner.getParameters();
+        final BenchToolStatistics stats = runner.getStatistics();
+        final TransactionStateManager txManager = runner.getTransactionManager();
+        final long testTime = Math.max(runner.getTestTime(), 1);
+        final String startedAt = formatTime(runner.getStartedAt());
+
+        report.put("report_version", VERSION);
+        report.put("started_at", startedAt);
+        report.put("options", runner.getOptions());
+        report.put("parameters", parameters);
+
+        final Map<String, Object> fedora = new LinkedHashMap<>();
+        fedora.put("version", parameters.get("fedora_version"));
+        fedora.put("url", parameters.get("fedora_url"));
+        fedora.put("cluster_size_before", runner.getClusterSizeBefore());
+        fedora.put("cluster_size_after", runner.getClusterSizeAfter());
+        report.put("fedora", fedora);
+
+        /* the latencies of the workload's actions, without the transaction actions */
+        final Histogram latencies =
+                new Histogram(ActionStatistics.HIGHEST_TRACKABLE_VALUE, ActionStatistics.SIGNIFICANT_DIGITS);
+        long corruptions = 0;
+        final List<Object> actions = new ArrayList<>();
+        for (final ActionStatistics s : stats.getRecorded()) {
+            final Histogram h = s.getHistogram();
+            if (!TX_ACTIONS.contains(s.getAction())) {
+                latencies.add(h);
+            }
+            corruptions += s.getCorruptions();
+            final Map<String, Object> action = new LinkedHashMap<>();
+            action.put("action", s.getAction().name());
+            action.put("count", h.getTotalCount());
+            action.put("errors", s.getErrors());
+            action.put("corruptions", s.getCorruptions());
+            action.put("bytes", s.getBytes());
+            action.put("latency_ms", getPercentiles(h));
+            action.put("service_time_ms", getPercentiles(s.getServiceTimeHistogram()));
+            final Histogram firstByte = s.getTimeToFirstByteHistogram();
+            action.put("time_to_first_byte_ms", firstByte.getTotalCount() > 0 ? getPercentiles(firstByte) : null);
+            actions.add(action);
+        }
+
+        final Map<String, Object> results = new LinkedHashMap<>();
+        results.put("actions", runner.getActionsMeasured());
+        results.put("errors", stats.getErrors());
+        results.put("corruptions", corruptions);
+        results.put("bytes", stats.getBytes());
+        results.put("test_time_ms", runner.getTestTime());
+        results.put("run_time_ms", runner.getRunTime());
+        results.put("actions_per_sec", runner.getActionsMeasured() * 1000d / testTime);
+        results.put("mb_per_sec", runner.getThroughput());
+        results.put("mb_per_sec_per_thread", runner.getThroughputPerThread());
+        results.put("latency_ms", getPercentiles(latencies));
+        results.put("latency_histogram", encode(latencies));
+        final List<Long> throughput = new ArrayList<>();
+        for (final long count : runner.getThroughputSamples()) {
+            throughput.add(count);
+        }
+        results.put("actions_per_second", throughput);
+        report.put("results", results);
+        report.put("actions", actions);
+
+        Histogram create = null;
+        Histogram finish = null;
+        if (txManager == null) {
+            report.put("transactions", null);
+        } else {
+            final TransactionProfiler profiler = txManager.getProfiler();
+            create = profiler.getCreateHistogram();
+            finish = profiler.getFinishHistogram();
+            final Histogram size = profiler.getSizeHistogram();
+            final Map<String, Object> tx = new LinkedHashMap<>();
+            tx.put("mode", txManager.getMode().name());
+            tx.put("actions_per_tx", txManager.getActionsPerTx());
+            tx.put("parallel_tx", txManager.getParallelTx());
+            tx.put("count", size.getTotalCount());
+            tx.put("create_time_ms", txManager.getCreateTime());
+            tx.put("commit_time_ms", txManager.getCommitTime());
+            tx.put("create_ms", getPercentiles(create));
+            tx.put("open_ms", getPercentiles(profiler.getOpenTimeHistogram()));
+            tx.put("action_ms", getPercentiles(profiler.getActionHistogram()));
+            tx.put("finish_ms", getPercentiles(finish));
+            final Map<String, Object> actionsPerTx = new LinkedHashMap<>();
+            actionsPerTx.put("mean", size.getMean());
+            actionsPerTx.put("min", size.getMinValue());
+            actionsPerTx.put("max", size.getMaxValue());
+            tx.put("actions", actionsPerTx);
+            report.put("transactions", tx);
+        }
+
+        row.add(VERSION);
+        row.add(startedAt);
+        for (final String name : new String[] {"fedora_version", "fedora_url", "workload", "size", "num_actions",
+                "threads", "agents", "engine", "rate", "duration_s", "warmup_s", "tx_mode", "actions_per_tx",
+                "parallel_tx"}) {
+            row.add(parameters.get(name));
+        }
+        row.add(runner.getClusterSizeBefore());
+        row.add(runner.getClusterSizeAfter());
+        row.add(runner.getActionsMeasured());
+        row.add(stats.getErrors());
+        row.add(corruptions);
+        row.add(runner.getTestTime());
+        row.add(runner.getActionsMeasured() * 1000d / testTime);
+        row.add(runner.getThroughput());
+        row.add(latencies.getValueAtPercentile(50d));
+        row.add(latencies.getValueAtPercentile(90d));
+        row.add(latencies.getValueAtPercentile(99d));
+        row.add(latencies.getValueAtPercentile(99.9d));
+        row.add(latencies.getMaxValue());
+        row.add(txManager == null ? null : txManager.getCreateTime());
+        row.add(txManager == null ? null : txManager.getCommitTime());
+        row.add(create == null ? null : create.getValueAtPercentile(50d));
+        row.add(create == null ? null : create.getValueAtPercentile(99d));
+        row.add(finish == null ? null : finish.getValueAtPercentile(50d));
+        row.add(finish == null ? null : finish.getValueAtPercentile(99d));
+    }
+
+    /**
+     * Write the report as a JSON document, replacing an existing file
+     */
+    public void writeJson(final String path) throws IOException {
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(path), StandardCharsets.UTF_8)) {
+            out.write(Json.write(report));
+        }
+    }
+
+    /**
+     * Append the report as a CSV row, writing a header line first if the file
+     * does not exist yet
+     */
+    public void appendCsv(final String path) throws IOException {
+        final boolean exists = new File(path).length() > 0;
+        final StringBuilder csv = new StringBuilder();
+        if (!exists) {
+            csv.append(CSV_HEADER);
+        }
+        for (int i = 0; i < row.size(); i++) {
+            if (i > 0) {
+                csv.append(',');
+            }
+            final Object value = row.get(i);
+            if (value instanceof Double || value instanceof Float) {
+                csv.append(Json.formatNumber(((Number) value).doubleValue()));
+            } else if (value != null) {
+                csv.append(quoteCsv(value.toString()));
+            }
+        }
+        csv.append('\n');
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(path, true), StandardCharsets.UTF_8)) {
+            out.write(csv.toString());
+        }
+    }
+
+    private static Map<String, Object> getPercentiles(final Histogram h) {
+        final Map<String, Object> percentiles = new LinkedHashMap<>();
+        percentiles.put("p50", h.getValueAtPercentile(50d));
+        percentiles.put("p90", h.getValueAtPercentile(90d));
+        percentiles.put("p99", h.getValueAtPercentile(99d));
+        percentiles.put("p99_9", h.getValueAtPercentile(99.9d));
+        percentiles.put("max", h.getMaxValue());
+        percentiles.put("mean", h.getMean());
+        return percentiles;
+    }
+
+    /**
+     * @return the histogram compressed and encoded as base64 like the
+     *         histograms of the HdrHistogram log format
+     */
+    private static String encode(final Histogram histogram) {
+        final ByteBuffer buffer = ByteBuffer.allocate(histogram.getNeededByteBufferCapacity());
+        final int length = histogram.encodeIntoCompressedByteBuffer(buffer);
+        return Base64.encodeBase64String(Arrays.copyOf(buffer.array(), length));
+    }
+
+    private static String formatTime(final long time) {
+        final SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.ENGLISH);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(new Date(time));
+    }
+
+    private static String quoteCsv(final String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+}
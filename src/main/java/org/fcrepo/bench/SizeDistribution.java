@@ -0,0 +1,273 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.bench;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The sizes of the binaries of a run. The size of a binary is derived from a
+ * hash of its object's pid, so the same object has the same size during
+ * preparation, when it is read and when it is updated, without keeping track
+ * of the sizes, and every agent of a distributed run agrees on it.
+ * <p>
+ * The following distributions are supported:
+ * <ul>
+ * <li>a single size like <code>1m</code></li>
+ * <li>a weighted list of sizes like <code>10k:70,50m:25,4g:5</code></li>
+ * <li><code>lognormal:median:sigma</code>, e.g. <code>lognormal:1m:1.5</code>
+ * </li>
+ * <li><code>file:path</code>, an empirical histogram read from a file. Every
+ * line of the file contains the upper bound of a bucket and the number of
+ * binaries in the bucket, separated by whitespace. The sizes are spread
+ * evenly within a bucket, lines starting with # are ignored.</li>
+ * </ul>
+ */
+public abstract class SizeDistribution {
+
+    private final String spec;
+
+    protected SizeDistribution(final String spec) {
+        super();
+        this.spec = spec;
+    }
+
+    /**
+     * @return the size of the binary of the given object
+     */
+    public long sizeOf(final String pid) {
+        return sample(uniform(pid, 0), uniform(pid, 1));
+    }
+
+    /**
+     * @param u a uniformly distributed number between 0 and 1
+     * @param v another uniformly distributed number between 0 and 1
+     * @return the size for the given numbers
+     */
+    protected abstract long sample(double u, double v);
+
+    /**
+     * @return a human readable description of the distribution
+     */
+    public String describe() {
+        return spec;
+    }
+
+    @Override
+    public String toString() {
+        return spec;
+    }
+
+    /**
+     * @return a distribution with a single size
+     */
+    public static SizeDistribution fixed(final long size) {
+        return new Fixed(size);
+    }
+
+    /**
+     * Parse a size distribution
+     *
+     * @param spec the specification of the distribution
+     * @throws IOException if the histogram file can not be read
+     */
+    public static SizeDistribution parse(final String spec) throws IOException {
+        final String trimmed = spec.trim();
+        if (trimmed.startsWith("lognormal:")) {
+            final String[] parts = trimmed.split(":");
+            if (parts.length != 3) {
+                throw new IllegalArgumentException("Expected lognormal:median:sigma but got " + spec);
+            }
+            return new LogNormal(trimmed, BenchTool.getSizeFromArgument(parts[1]), Double.parseDouble(parts[2]));
+        }
+        if (trimmed.startsWith("file:")) {
+            return readHistogram(trimmed, trimmed.substring(5));
+        }
+        if (!trimmed.contains(",") && !trimmed.contains(":")) {
+            return fixed(BenchTool.getSizeFromArgument(trimmed));
+        }
+        final String[] entries = trimmed.split(",");
+        final long[] sizes = new long[entries.length];
+        final double[] weights = new double[entries.length];
+        for (int i = 0; i < entries.length; i++) {
+            final String[] parts = entries[i].trim().split(":");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Size entry " + entries[i] + " could not be parsed, expected " +
+                        "size:weight");
+            }
+            sizes[i] = BenchTool.getSizeFromArgument(parts[0].trim());
+            weights[i] = Double.parseDouble(parts[1].trim());
+        }
+        return new Weighted(trimmed, sizes, weights, false);
+    }
+
+    private static SizeDistribution readHistogram(final String spec, final String path) throws IOException {
+        final List<Long> bounds = new ArrayList<>();
+        final List<Double> counts = new ArrayList<>();
+        try (BufferedReader reader =
+                new BufferedReader(new InputStreamReader(new FileInputStream(path), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                final String[] parts = line.split("\\s+");
+                if (parts.length != 2) {
+                    throw new IOException("Unable to parse line '" + line + "' of " + path +
+                            ", expected the upper bound of a bucket and a count");
+                }
+                bounds.add(BenchTool.getSizeFromArgument(parts[0]));
+                counts.add(Double.parseDouble(parts[1]));
+            }
+        }
+        final long[] sizes = new long[bounds.size()];
+        final double[] weights = new double[counts.size()];
+        for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = bounds.get(i);
+            weights[i] = counts.get(i);
+            if (i > 0 && sizes[i] <= sizes[i - 1]) {
+                throw new IOException("The buckets in " + path + " have to be sorted by size");
+            }
+        }
+        return new Weighted(spec, sizes, weights, true);
+    }
+
+    /**
+     * Derive a uniformly distributed number from a pid using FNV-1a and the
+     * SplitMix64 finalizer
+     */
+    private static double uniform(final String pid, final int stream) {
+        long hash = 0xcbf29ce484222325L ^ stream;
+        for (int i = 0; i < pid.length(); i++) {
+            hash ^= pid.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash = (hash ^ (hash >>> 30)) * 0xbf58476d1ce4e5b9L;
+        hash = (hash ^ (hash >>> 27)) * 0x94d049bb133111ebL;
+        hash ^= hash >>> 31;
+        return (hash >>> 11) * 0x1.0p-53;
+    }
+
+    private static class Fixed extends SizeDistribution {
+
+        private final long size;
+
+        private Fixed(final long size) {
+            super(String.valueOf(size));
+            this.size = size;
+        }
+
+        @Override
+        public long sizeOf(final String pid) {
+            return size;
+        }
+
+        @Override
+        protected long sample(final double u, final double v) {
+            return size;
+        }
+
+        @Override
+        public String describe() {
+            return FCRepoBenchRunner.convertSize(size);
+        }
+    }
+
+    /**
+     * A weighted list of sizes, or the buckets of a histogram if the sizes
+     * are interpolated
+     */
+    private static class Weighted extends SizeDistribution {
+
+        private final long[] sizes;
+
+        private final double[] cumulative;
+
+        private final boolean interpolate;
+
+        private Weighted(final String spec, final long[] sizes, final double[] weights, final boolean interpolate) {
+            super(spec);
+            if (sizes.length == 0) {
+                throw new IllegalArgumentException("At least one size is required");
+            }
+            this.sizes = sizes;
+            this.interpolate = interpolate;
+            this.cumulative = new double[weights.length];
+            double total = 0;
+            for (int i = 0; i < weights.length; i++) {
+                if (weights[i] < 0) {
+                    throw new IllegalArgumentException("The weights of the sizes must not be negative");
+                }
+                total += weights[i];
+                cumulative[i] = total;
+            }
+            if (total <= 0) {
+                throw new IllegalArgumentException("The sum of the weights of the sizes has to be positive");
+            }
+        }
+
+        @Override
+        protected long sample(final double u, final double v) {
+            /* find the first bucket whose cumulative weight exceeds the target */
+            final double target = u * cumulative[cumulative.length - 1];
+            int i = 0;
+            int j = cumulative.length - 1;
+            while (i < j) {
+                final int mid = (i + j) >>> 1;
+                if (cumulative[mid] > target) {
+                    j = mid;
+                } else {
+                    i = mid + 1;
+                }
+            }
+            if (!interpolate) {
+                return sizes[i];
+            }
+            final long lower = i == 0 ? 0 : sizes[i - 1];
+            return lower + 1 + (long) (v * (sizes[i] - lower));
+        }
+    }
+
+    private static class LogNormal extends SizeDistribution {
+
+        private final double mu;
+
+        private final double sigma;
+
+        private LogNormal(final String spec, final long median, final double sigma) {
+            super(spec);
+            if (median <= 0 || sigma < 0) {
+                throw new IllegalArgumentException("The median has to be positive and sigma must not be negative");
+            }
+            this.mu = Math.log(median);
+            this.sigma = sigma;
+        }
+
+        @Override
+        protected long sample(final double u, final double v) {
+            /* Box-Muller transform, 1 - u is never 0 which keeps the logarithm finite */
+            final double z = Math.sqrt(-2d * Math.log(1d - u)) * Math.cos(2d * Math.PI * v);
+            return Math.max(1, Math.round(Math.exp(mu + sigma * z)));
+        }
+    }
+}
@@ -0,0 +1,228 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.bench;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.HdrHistogram.Histogram;
+import org.apache.commons.cli.ParseException;
+import org.fcrepo.bench.BenchTool.Action;
+import org.fcrepo.bench.PreparationRunner.Step;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Searches for the highest rate of actions Fedora sustains while meeting a
+ * latency objective. The benchmark is run open loop at an increasing rate,
+ * doubling it until the objective is missed, and then the rate is narrowed
+ * down by a binary search between the highest rate meeting the objective and
+ * the lowest one missing it. A rate is sustained if the objective is met, the
+ * achieved rate is close to the offered one, so that a client which is not
+ * able to keep up does not pass for a fast server, and hardly any action
+ * failed, since failed actions count towards the achieved rate but are
+ * missing from the latencies. All runs share the prepared objects.
+ */
+public class ThroughputSearch {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ThroughputSearch.class);
+
+    /* the fraction of the offered rate which has to be achieved */
+    private static final double MIN_ACHIEVED_RATE = 0.95d;
+
+    /* the fraction of the measured actions which may fail */
+    private static final double MAX_ERROR_RATE = 0.001d;
+
+    /* the search stops once the rates meeting and missing the objective are this close */
+    private static final double PRECISION = 0.05d;
+
+    private static final int MAX_RUNS = 16;
+
+    private static final double DEFAULT_START_RATE = 10d;
+
+    private final List<String> arguments;
+
+    private final Objective objective;
+
+    private final double startRate;
+
+    private final Map<List<Step>, PidPool> dataset = new HashMap<>();
+
+    private final List<String> steps = new ArrayList<>();
+
+    /**
+     * @param arguments the command line of every run without the rate
+     * @param objective the latency objective as accepted by
+     *        {@link Objective#parse(String)}
+     * @param startRate the rate of the first run, values <= 0 start at 10
+     *        actions per second
+     */
+    public ThroughputSearch(final List<String> arguments, final String objective, final double startRate) {
+        super();
+        this.arguments = arguments;
+        this.objective = Objective.parse(objective);
+        this.startRate = startRate > 0 ? startRate : DEFAULT_START_RATE;
+    }
+
+    /**
+     * Run the search and log the highest sustained rate
+     */
+    public void run() throws ParseException, IOException {
+        double met = 0;
+        double missed = 0;
+        double achieved = 0;
+        double rate = startRate;
+        for (int i = 0;; i++) {
+            final List<String> args = new ArrayList<>(arguments);
+            args.add("-r");
+            args.add(String.valueOf(rate));
+            LOG.info("Search: running at {} action(s)/sec", FCRepoBenchRunner.FORMAT.format(rate));
+            final FCRepoBenchRunner runner = BenchTool.createRunner(args.toArray(new String[args.size()]));
+            boolean done = true;
+            try {
+                runner.setSharedPools(dataset);
+                runner.runBenchmark();
+                final double actual = evaluate(runner, rate);
+                if (actual >= 0) {
+                    met = rate;
+                    achieved = actual;
+                } else {
+                    missed = rate;
+                }
+                done = i == MAX_RUNS - 1 || (missed > 0 && missed - met <= PRECISION * missed);
+            } finally {
+                try {
+                    /* the objects are purged by the last run, which is the failed one in case of an error */
+                    if (done) {
+                        runner.purgeSharedPools();
+                    }
+                } finally {
+                    BenchTool.closeClients();
+                }
+            }
+            if (done) {
+                break;
+            }
+            rate = missed > 0 ? (met + missed) / 2d : rate * 2d;
+        }
+        logResults(met, missed, achieved);
+    }
+
+    /**
+     * @return the achieved rate if the offered rate has been sustained, or -1
+     *         if not
+     */
+    private double evaluate(final FCRepoBenchRunner runner, final double rate) {
+        final double achieved = runner.getActionsMeasured() * 1000d / Math.max(runner.getTestTime(), 1);
+        final long latency = objective.getLatency(runner.getStatistics());
+        final long errors = runner.getStatistics().getErrors();
+        final boolean sustained =
+                achieved >= MIN_ACHIEVED_RATE * rate && latency >= 0 && latency <= objective.getLimit() &&
+                        errors <= MAX_ERROR_RATE * runner.getActionsMeasured();
+        steps.add(String.format("%12s %12s %12s %12s %12s", FCRepoBenchRunner.FORMAT.format(rate),
+                FCRepoBenchRunner.FORMAT.format(achieved), latency < 0 ? "-" : latency + " ms", errors,
+                sustained ? "met" : "missed"));
+        return sustained ? achieved : -1;
+    }
+
+    private void logResults(final double met, final double missed, final double achieved) {
+        LOG.info("Throughput search for {} (rates in action(s)/sec):", objective);
+        LOG.info(String.format("%12s %12s %12s %12s %12s", "offered", "achieved", objective.getPercentileName(),
+                "errors", "objective"));
+        for (final String step : steps) {
+            LOG.info(step);
+        }
+        if (met == 0) {
+            LOG.info("The objective was not met at the lowest rate of {} action(s)/sec", FCRepoBenchRunner.FORMAT
+                    .format(missed));
+        } else if (missed == 0) {
+            LOG.info("The objective was still met at {} action(s)/sec, the highest rate tried", FCRepoBenchRunner
+                    .FORMAT.format(met));
+        } else {
+            LOG.info("Highest sustained rate meeting the objective: {} action(s)/sec offered, {} action(s)/sec " +
+                    "achieved", FCRepoBenchRunner.FORMAT.format(met), FCRepoBenchRunner.FORMAT.format(achieved));
+        }
+    }
+
+    /**
+     * A latency objective like <code>read:p99:200</code>, which requires the
+     * 99th percentile of the read latencies to be at most 200 ms. Without an
+     * action the latencies of all actions are considered.
+     */
+    static class Objective {
+
+        private final Action action;
+
+        private final double percentile;
+
+        private final long limit;
+
+        private Objective(final Action action, final double percentile, final long limit) {
+            super();
+            this.action = action;
+            this.percentile = percentile;
+            this.limit = limit;
+        }
+
+        static Objective parse(final String spec) {
+            final String[] parts = spec.trim().split(":");
+            if (parts.length < 2 || parts.length > 3 || !parts[parts.length - 2].toLowerCase().startsWith("p")) {
+                throw new IllegalArgumentException("Latency objective " + spec + " could not be parsed, expected " +
+                        "[action:]percentile:millis like read:p99:200");
+            }
+            final Action action = parts.length == 3 ? Action.valueOf(parts[0].trim().toUpperCase()) : null;
+            final double percentile = Double.parseDouble(parts[parts.length - 2].trim().substring(1));
+            final long limit = Long.parseLong(parts[parts.length - 1].trim());
+            if (percentile <= 0 || percentile > 100 || limit <= 0) {
+                throw new IllegalArgumentException("The percentile of a latency objective has to be between 0 " +
+                        "and 100 and its limit has to be positive");
+            }
+            return new Objective(action, percentile, limit);
+        }
+
+        /**
+         * @return the latency at the objective's percentile in milliseconds,
+         *         or -1 if no action has been measured
+         */
+        long getLatency(final BenchToolStatistics stats) {
+            final Histogram latencies =
+                    new Histogram(ActionStatistics.HIGHEST_TRACKABLE_VALUE, ActionStatistics.SIGNIFICANT_DIGITS);
+            for (final ActionStatistics actionStats : stats.getRecorded()) {
+                if (action == null || actionStats.getAction() == action) {
+                    latencies.add(actionStats.getHistogram());
+                }
+            }
+            return latencies.getTotalCount() == 0 ? -1 : latencies.getValueAtPercentile(percentile);
+        }
+
+        long getLimit() {
+            return limit;
+        }
+
+        String getPercentileName() {
+            return "p" + FCRepoBenchRunner.FORMAT.format(percentile);
+        }
+
+        @Override
+        public String toString() {
+            return getPercentileName() + " <= " + limit + " ms" + (action == null ? "" : " for " + action);
+        }
+    }
+}
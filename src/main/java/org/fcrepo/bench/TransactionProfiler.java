@@ -0,0 +1,129 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.bench;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ * Records the life cycle of every transaction of a run: how long it took to
+ * create the transaction, how long it stayed open waiting for its actions,
+ * the latencies of the actions performed in it, how long the commit or
+ * rollback took and how many actions it contained. Like
+ * {@link ActionStatistics} recording is wait-free, so it can be done from any
+ * number of threads.
+ */
+public class TransactionProfiler {
+
+    private final Metric create = new Metric(ActionStatistics.HIGHEST_TRACKABLE_VALUE);
+
+    private final Metric open = new Metric(ActionStatistics.HIGHEST_TRACKABLE_VALUE);
+
+    private final Metric actions = new Metric(ActionStatistics.HIGHEST_TRACKABLE_VALUE);
+
+    private final Metric finish = new Metric(ActionStatistics.HIGHEST_TRACKABLE_VALUE);
+
+    private final Metric size = new Metric(Integer.MAX_VALUE);
+
+    /**
+     * @param latency the time it took to create a transaction in milliseconds
+     */
+    public void recordCreate(final long latency) {
+        create.record(latency);
+    }
+
+    /**
+     * @param latency the latency of an action performed in a transaction in
+     *        milliseconds
+     */
+    public void recordAction(final long latency) {
+        actions.record(latency);
+    }
+
+    /**
+     * @param openTime the time between the creation of the transaction and
+     *        the start of its commit or rollback in milliseconds
+     * @param latency the time it took to commit or roll back the transaction
+     *        in milliseconds
+     * @param numActions the number of actions performed in the transaction
+     */
+    public void recordFinish(final long openTime, final long latency, final int numActions) {
+        open.record(openTime);
+        finish.record(latency);
+        size.record(numActions);
+    }
+
+    /**
+     * Discard everything recorded so far, e.g. at the end of the warmup
+     */
+    public void reset() {
+        create.reset();
+        open.reset();
+        actions.reset();
+        finish.reset();
+        size.reset();
+    }
+
+    public Histogram getCreateHistogram() {
+        return create.snapshot();
+    }
+
+    public Histogram getOpenTimeHistogram() {
+        return open.snapshot();
+    }
+
+    public Histogram getActionHistogram() {
+        return actions.snapshot();
+    }
+
+    public Histogram getFinishHistogram() {
+        return finish.snapshot();
+    }
+
+    public Histogram getSizeHistogram() {
+        return size.snapshot();
+    }
+
+    private static class Metric {
+
+        private final long highestTrackableValue;
+
+        private final Recorder recorder;
+
+        private final Histogram total;
+
+        private Metric(final long highestTrackableValue) {
+            this.highestTrackableValue = highestTrackableValue;
+            this.recorder = new Recorder(highestTrackableValue, ActionStatistics.SIGNIFICANT_DIGITS);
+            this.total = new Histogram(highestTrackableValue, ActionStatistics.SIGNIFICANT_DIGITS);
+        }
+
+        private void record(final long value) {
+            recorder.recordValue(Math.min(Math.max(value, 0), highestTrackableValue));
+        }
+
+        private synchronized Histogram snapshot() {
+            total.add(recorder.getIntervalHistogram());
+            return total.copy();
+        }
+
+        private synchronized void reset() {
+            recorder.reset();
+            total.reset();
+        }
+    }
+}
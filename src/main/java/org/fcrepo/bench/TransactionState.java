@@ -16,6 +16,8 @@
 
 package org.fcrepo.bench;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.fcrepo.bench.BenchTool.Action;
@@ -27,6 +29,13 @@ import static org.fcrepo.bench.BenchTool.Action.ROLLBACK_TX;
 import static org.fcrepo.bench.BenchTool.Action.CREATE_TX;
 
 /**
+ * The state of a single transaction. The actions of a transaction form a
+ * chain of events: actions are started once the transaction has been created
+ * using {@link #whenCreated(Runnable)}, and the transaction is committed or
+ * rolled back once its last action has completed using
+ * {@link #whenAllActionsCompleted(Runnable)}, so no thread has to wait for
+ * either event.
+ *
  * @author bbpennel
  * @date Feb 24, 2014
  */
@@ -36,13 +45,25 @@ public class TransactionState {
 
     private String transactionId;
 
-    private int actionsAssigned;
+    /* assigned by the scheduling thread, read by the thread finishing the transaction */
+    private volatile int actionsAssigned;
 
     private int maxActions;
 
     private final AtomicInteger actionsCompleted;
 
-    private boolean readyForCommit;
+    private volatile boolean readyForCommit;
+
+    private volatile long createdAt;
+
+    /* guarded by this */
+    private final List<Runnable> waitingForCreation = new ArrayList<>();
+
+    /* guarded by this */
+    private boolean creationFailed;
+
+    /* guarded by this */
+    private Runnable finalizer;
 
     public TransactionState(final int actionsPerTx) {
         transactionId = null;
@@ -56,13 +77,71 @@ public class TransactionState {
      * @param transactionId the transactionId to set
      */
     public void setTransactionId(final String transactionId) {
-        this.transactionId = transactionId;
+        final List<Runnable> ready;
+        synchronized (this) {
+            this.transactionId = transactionId;
+            this.createdAt = System.nanoTime();
+            ready = new ArrayList<>(waitingForCreation);
+            waitingForCreation.clear();
+        }
+        for (final Runnable r : ready) {
+            r.run();
+        }
+    }
+
+    /**
+     * Start the actions waiting for the transaction anyway, they will fail
+     * immediately instead of waiting forever
+     */
+    public void creationFailed() {
+        final List<Runnable> ready;
+        synchronized (this) {
+            this.creationFailed = true;
+            ready = new ArrayList<>(waitingForCreation);
+            waitingForCreation.clear();
+        }
+        for (final Runnable r : ready) {
+            r.run();
+        }
+    }
+
+    /**
+     * Run the given callback as soon as the transaction has been created, or
+     * right away if it exists already
+     *
+     * @param callback the callback, usually submitting an action
+     */
+    public void whenCreated(final Runnable callback) {
+        synchronized (this) {
+            if (transactionId == null && !creationFailed) {
+                waitingForCreation.add(callback);
+                return;
+            }
+        }
+        callback.run();
+    }
+
+    /**
+     * Run the given callback as soon as all actions assigned to this
+     * transaction have completed. Must be called only once no more actions
+     * will be assigned.
+     *
+     * @param callback the callback, usually submitting the commit or rollback
+     */
+    public void whenAllActionsCompleted(final Runnable callback) {
+        synchronized (this) {
+            if (actionsCompleted.get() < maxActions) {
+                finalizer = callback;
+                return;
+            }
+        }
+        callback.run();
     }
 
     /**
      * @return the transactionId
      */
-    public String getTransactionId() {
+    public synchronized String getTransactionId() {
         return transactionId;
     }
 
@@ -70,11 +149,23 @@ public class TransactionState {
         if (action == CREATE_TX || action == COMMIT_TX || action == ROLLBACK_TX) {
             return;
         }
-        final int completed = this.actionsCompleted.incrementAndGet();
-        if (completed >= maxActions) {
-            readyForCommit = true;
+        final Runnable ready;
+        final int completed;
+        synchronized (this) {
+            completed = this.actionsCompleted.incrementAndGet();
+            /* a transaction with an unlimited number of actions is ready only once its size has been fixed */
+            if (maxActions > 0 && completed >= maxActions) {
+                readyForCommit = true;
+            }
+            ready = completed >= maxActions ? finalizer : null;
+            if (ready != null) {
+                finalizer = null;
+            }
         }
         LOGGER.debug("Completed {} action(s) for {}", completed, transactionId);
+        if (ready != null) {
+            ready.run();
+        }
     }
 
     /**
@@ -87,10 +178,18 @@ public class TransactionState {
     /**
      * @param maxActions the maxActions to set
      */
-    public void setMaxActions(final int maxActions) {
+    public synchronized void setMaxActions(final int maxActions) {
         this.maxActions = maxActions;
     }
 
+    /**
+     * @return the time the transaction has been created at in
+     *         {@link System#nanoTime()} units
+     */
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
     public void assignAction() {
         actionsAssigned++;
     }
@@ -99,11 +198,11 @@ public class TransactionState {
         return actionsAssigned > 0;
     }
 
-    public boolean allActionsAssigned() {
+    public synchronized boolean allActionsAssigned() {
         return actionsAssigned == maxActions && maxActions > 0;
     }
 
-    public boolean transactionCreated() {
+    public synchronized boolean transactionCreated() {
         return this.transactionId != null;
     }
 
@@ -19,6 +19,7 @@ package org.fcrepo.bench;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.fcrepo.bench.BenchTool.Action;
 
@@ -42,9 +43,11 @@ public class TransactionStateManager {
 
     private final int parallelTx;
 
-    private long createTime;
+    private final AtomicLong createTime = new AtomicLong();
 
-    private long commitTime;
+    private final AtomicLong commitTime = new AtomicLong();
+
+    private final TransactionProfiler profiler = new TransactionProfiler();
 
     public TransactionStateManager(final TransactionMode mode, final int actionsPerTx, final int parallelTx)
             throws IOException {
@@ -118,21 +121,28 @@ public class TransactionStateManager {
      * @return the createTime
      */
     public long getCreateTime() {
-        return createTime;
+        return createTime.get();
     }
 
     public void addToCreateTime(final long time) {
-        createTime += time;
+        createTime.addAndGet(time);
     }
 
     /**
      * @return the commitTime
      */
     public long getCommitTime() {
-        return commitTime;
+        return commitTime.get();
     }
 
     public void addToCommitTime(final long time) {
-        commitTime += time;
+        commitTime.addAndGet(time);
+    }
+
+    /**
+     * @return the profiler recording the life cycle of the transactions
+     */
+    public TransactionProfiler getProfiler() {
+        return profiler;
     }
 }
@@ -0,0 +1,179 @@
+/**
+ * Copyright 2013 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.fcrepo.bench;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.fcrepo.bench.BenchTool.Action;
+
+/**
+ * A weighted mix of actions. The actions are dealt from a shuffled deck which
+ * contains every action as often as its weight, so every block of
+ * {@link #getTotalWeight()} actions matches the mix exactly while the order
+ * within a block is random. This keeps the number of objects each action
+ * needs predictable, which would not be the case when drawing every action
+ * independently.
+ * <p>
+ * Not thread safe, the actions are drawn by the scheduling thread.
+ */
+public class Workload {
+
+    /* the actions a worker can perform, the transactions are managed by the runner */
+    static final Set<Action> ACTIONS = Collections.unmodifiableSet(EnumSet.of(Action.INGEST, Action.READ,
+            Action.UPDATE, Action.DELETE, Action.SPARQL_INSERT, Action.SPARQL_SELECT, Action.CREATE_PROPERTY,
+            Action.READ_PROPERTY, Action.UPDATE_PROPERTY, Action.DELETE_PROPERTY));
+
+    private final Map<Action, Integer> weights;
+
+    private final Action[] deck;
+
+    private final Random random = new Random();
+
+    private int dealt;
+
+    public Workload(final Map<Action, Integer> weights) {
+        super();
+        if (weights.isEmpty()) {
+            throw new IllegalArgumentException("A workload needs at least one action");
+        }
+        int total = 0;
+        for (final Map.Entry<Action, Integer> weight : weights.entrySet()) {
+            if (!ACTIONS.contains(weight.getKey())) {
+                throw new IllegalArgumentException("The action " + weight.getKey() + " can not be performed, " +
+                        "expected one of " + ACTIONS);
+            }
+            if (weight.getValue() <= 0) {
+                throw new IllegalArgumentException("The weight of " + weight.getKey() + " has to be positive");
+            }
+            total += weight.getValue();
+        }
+        this.weights = Collections.unmodifiableMap(new EnumMap<>(weights));
+        this.deck = new Action[total];
+        int i = 0;
+        for (final Map.Entry<Action, Integer> weight : this.weights.entrySet()) {
+            for (int j = 0; j < weight.getValue(); j++) {
+                deck[i++] = weight.getKey();
+            }
+        }
+        this.dealt = deck.length;
+    }
+
+    /**
+     * @return a workload consisting of a single action
+     */
+    public static Workload single(final Action action) {
+        return new Workload(Collections.singletonMap(action, 1));
+    }
+
+    /**
+     * Parse a workload of the form <code>read:80,update:10,ingest:5</code>.
+     * Only the actions a worker can perform are accepted, which leaves out
+     * listing and the transaction actions.
+     */
+    public static Workload parse(final String spec) {
+        final Map<Action, Integer> weights = new EnumMap<>(Action.class);
+        for (final String entry : spec.split(",")) {
+            final int colon = entry.indexOf(':');
+            if (colon <= 0) {
+                throw new IllegalArgumentException("Workload entry " + entry + " could not be parsed, expected " +
+                        "action:weight");
+            }
+            final Action action;
+            try {
+                action = Action.valueOf(entry.substring(0, colon).trim().toUpperCase());
+            } catch (final IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown action " + entry.substring(0, colon).trim() +
+                        ", expected one of " + ACTIONS);
+            }
+            final int weight = Integer.parseInt(entry.substring(colon + 1).trim());
+            final Integer previous = weights.get(action);
+            weights.put(action, previous == null ? weight : previous + weight);
+        }
+        return new Workload(weights);
+    }
+
+    /**
+     * @return the next action to perform
+     */
+    public Action next() {
+        if (dealt == deck.length) {
+            /* Fisher-Yates shuffle */
+            for (int i = deck.length - 1; i > 0; i--) {
+                final int j = random.nextInt(i + 1);
+                final Action swap = deck[i];
+                deck[i] = deck[j];
+                deck[j] = swap;
+            }
+            dealt = 0;
+        }
+        return deck[dealt++];
+    }
+
+    /**
+     * @return the actions of this workload
+     */
+    public Set<Action> getActions() {
+        return weights.keySet();
+    }
+
+    /**
+     * @return whether this workload consists of more than one action
+     */
+    public boolean isMixed() {
+        return weights.size() > 1;
+    }
+
+    /**
+     * @return the maximum number of times the given action is drawn in the
+     *         given number of actions
+     */
+    public int getMaxCount(final Action action, final int numActions) {
+        final Integer weight = weights.get(action);
+        if (weight == null) {
+            return 0;
+        }
+        final int blocks = (numActions + deck.length - 1) / deck.length;
+        return blocks * weight;
+    }
+
+    /**
+     * @return the sum of all weights
+     */
+    public int getTotalWeight() {
+        return deck.length;
+    }
+
+    @Override
+    public String toString() {
+        if (!isMixed()) {
+            return weights.keySet().iterator().next().name();
+        }
+        final StringBuilder sb = new StringBuilder();
+        for (final Map.Entry<Action, Integer> weight : weights.entrySet()) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(weight.getKey().name()).append(':').append(weight.getValue());
+        }
+        return sb.toString();
+    }
+}